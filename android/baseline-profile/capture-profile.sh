@@ -0,0 +1,50 @@
+#!/bin/sh
+# Records the library methods ART saw running during scripted tap sessions and
+# merges them into android/src/main/baseline-prof.txt.
+#
+#   capture-profile.sh <package> [taps]
+#
+# Start from a fresh install of an app using the library, on an Android 9+
+# device where the shell can read /data/misc/profman. Taps are awaited from the
+# person holding the phone or run by TAP_COMMAND, see measure-first-tap.sh.
+# Review the diff before committing: only the card path belongs in the profile.
+
+set -e
+
+PACKAGE=$1
+TAPS=${2:-20}
+PROFILE=$(dirname "$0")/../src/main/baseline-prof.txt
+if [ -z "$PACKAGE" ]; then
+    echo "usage: $0 <package> [taps]" >&2
+    exit 1
+fi
+
+adb shell am force-stop "$PACKAGE"
+tap=1
+while [ $tap -le "$TAPS" ]; do
+    if [ -n "$TAP_COMMAND" ]; then
+        sh -c "$TAP_COMMAND" >/dev/null 2>&1 || true
+    else
+        echo "Tap $tap of $TAPS, press enter once the phone left the reader" >&2
+        read -r _
+    fi
+    tap=$((tap + 1))
+done
+
+# Make the app and the service process write their profiles out, then dump them
+for process in "$PACKAGE" "$PACKAGE:hce"; do
+    pid=$(adb shell pidof "$process" || true)
+    if [ -n "$pid" ]; then
+        adb shell kill -s USR1 "$pid"
+    fi
+done
+sleep 2
+adb shell cmd package dump-profiles "$PACKAGE"
+
+adb shell cat "/data/misc/profman/$PACKAGE-primary.prof.txt" \
+    | tr -d '\r' \
+    | grep -E '^(L|[HSP]+L)studio/bb/rnlib/' \
+    | cat "$PROFILE" - \
+    | sort -u -o "$PROFILE"
+
+echo "Updated $PROFILE"
@@ -0,0 +1,64 @@
+#!/bin/sh
+# Compares how long CardService takes to answer the first tap of a cold process
+# with and without the library's baseline profile.
+#
+#   measure-first-tap.sh <package> [runs]
+#
+# Needs the app installed on a device connected over adb, built with
+# androidx.profileinstaller so the profile shipped in the AAR can be installed
+# on demand, NFC enabled and a reader. Each run kills the app, compiles it
+# either without any ahead-of-time code or from its profile, waits for a tap
+# and reads the "First tap processed" line CardService logs.
+#
+# Taps are awaited from the person holding the phone, or run by TAP_COMMAND
+# when it is set, e.g. a PC/SC reader scripted with opensc-tool:
+#
+#   TAP_COMMAND="opensc-tool -s 00A4040007D276000085010100 -s 00A4000C02E103 \
+#       -s 00B000000F -s 00A4000C02E104 -s 00B0000002 -s 00B00002FF" \
+#       ./measure-first-tap.sh com.example.app 10
+
+set -e
+
+PACKAGE=$1
+RUNS=${2:-5}
+if [ -z "$PACKAGE" ]; then
+    echo "usage: $0 <package> [runs]" >&2
+    exit 1
+fi
+
+compile() {
+    if [ "$1" = profile ]; then
+        adb shell am broadcast -a androidx.profileinstaller.action.INSTALL_PROFILE \
+            "$PACKAGE/androidx.profileinstaller.ProfileInstallReceiver" >/dev/null
+        adb shell cmd package compile -f -m speed-profile "$PACKAGE" >/dev/null
+    else
+        adb shell cmd package compile -f -m verify "$PACKAGE" >/dev/null
+    fi
+}
+
+first_tap() {
+    adb shell am force-stop "$PACKAGE"
+    adb logcat -c
+    if [ -n "$TAP_COMMAND" ]; then
+        sh -c "$TAP_COMMAND" >/dev/null 2>&1 || true
+    else
+        echo "Tap the phone on the reader" >&2
+    fi
+    adb logcat -v raw -s CardService:I -e "First tap processed" -m 1 \
+        | sed -n 's/.* in \([0-9]*\) us.*/\1/p'
+}
+
+for mode in none profile; do
+    compile $mode
+    results=""
+    run=1
+    while [ $run -le "$RUNS" ]; do
+        micros=$(first_tap)
+        echo "$mode run $run: $micros us"
+        results="$results $micros"
+        run=$((run + 1))
+    done
+    echo "$results" | tr ' ' '\n' | grep . | sort -n | awk -v mode=$mode '
+        { value[NR] = $1; sum += $1 }
+        END { printf "%s: median %d us, mean %d us over %d taps\n", mode, value[int((NR + 1) / 2)], sum / NR, NR }'
+done
@@ -0,0 +1,306 @@
+package studio.bb.rnlib;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.nfc.NfcAdapter;
+import android.nfc.NfcManager;
+import android.nfc.cardemulation.CardEmulation;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registers the dynamic AIDs of {@link CardService}.
+ * <p>
+ * The NfcAdapter and CardEmulation handles are resolved once and dropped when the
+ * adapter state changes. Registration requests are coalesced on a background thread
+ * for {@link #COALESCE_DELAY_MS}, and the NFC service is only called when the
+ * resulting AID set differs from the one registered last.
+ */
+public class AidRegistrar {
+
+    private static final String TAG = "AidRegistrar";
+    private static final String CATEGORY = "other";
+    private static final long COALESCE_DELAY_MS = 50;
+
+    public interface Listener {
+        void onResult(boolean registered);
+
+        void onError(Exception e);
+    }
+
+    private final Context context;
+    private final ComponentName serviceComponent;
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    private NfcAdapter adapter;
+    private CardEmulation cardEmulation;
+    private boolean adapterResolved = false;
+    private boolean cardEmulationResolved = false;
+
+    // AIDs known to be registered with the NFC service, null when unknown
+    private Set<String> registeredAids = null;
+    private Set<String> pendingAids = null;
+    private final List<Listener> pendingListeners = new ArrayList<>();
+    // Run after every applied registration, see setChangeCallback
+    private volatile Runnable changeCallback = null;
+
+    public AidRegistrar(Context context) {
+        this.context = context.getApplicationContext();
+        this.serviceComponent = new ComponentName(this.context, CardService.class);
+        this.thread = new HandlerThread(TAG);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    public static Listener forPromise(final Promise promise) {
+        return new Listener() {
+            @Override
+            public void onResult(boolean registered) {
+                promise.resolve(registered);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                promise.reject(e);
+            }
+        };
+    }
+
+    public ComponentName getServiceComponent() {
+        return serviceComponent;
+    }
+
+    public synchronized NfcAdapter getAdapter() {
+        resolveAdapter();
+        return adapter;
+    }
+
+    /**
+     * @return The card emulation handle, null without NFC or without HCE support
+     */
+    public synchronized CardEmulation getCardEmulation() {
+        resolveCardEmulation();
+        return cardEmulation;
+    }
+
+    /**
+     * Drops the cached handles, called whenever the adapter state changes
+     */
+    public synchronized void invalidate() {
+        adapterResolved = false;
+        cardEmulationResolved = false;
+        adapter = null;
+        cardEmulation = null;
+        registeredAids = null;
+    }
+
+    public synchronized List<String> getRegisteredAids() {
+        if (registeredAids == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(registeredAids);
+    }
+
+    /**
+     * Requests the given AIDs to be the only ones registered for CardService.
+     * An empty list removes all of them. The listener is notified once the
+     * coalesced request it is part of has been applied.
+     */
+    public void register(List<String> aids, Listener listener) {
+        synchronized (this) {
+            pendingAids = new LinkedHashSet<>();
+            for (String aid : aids) {
+                pendingAids.add(aid.toUpperCase());
+            }
+            pendingListeners.add(listener);
+        }
+        handler.removeCallbacks(flush);
+        handler.postDelayed(flush, COALESCE_DELAY_MS);
+    }
+
+    /**
+     * Makes CardService the preferred service for its AIDs while the activity is in the foreground.
+     * Must be called from the activity's onResume.
+     *
+     * @return false if the platform or the adapter does not support it
+     */
+    public boolean setPreferredService(Activity activity) {
+        CardEmulation emulation = getCardEmulation();
+        if (emulation == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        boolean result = emulation.setPreferredService(activity, serviceComponent);
+        Log.i(TAG, "setPreferredService: " + result);
+        return result;
+    }
+
+    /**
+     * Must be called from the activity's onPause when {@link #setPreferredService(Activity)} was used
+     */
+    public boolean unsetPreferredService(Activity activity) {
+        CardEmulation emulation = getCardEmulation();
+        if (emulation == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        boolean result = emulation.unsetPreferredService(activity);
+        Log.i(TAG, "unsetPreferredService: " + result);
+        return result;
+    }
+
+    /**
+     * @param aids
+     *          The AIDs to check, the registered AIDs when empty
+     * @return Whether CardService is the service the OS routes each AID to
+     */
+    public Map<String, Boolean> isDefaultServiceForAids(List<String> aids) {
+        CardEmulation emulation = getCardEmulation();
+        if (emulation == null) {
+            throw new IllegalStateException("No NFC adapted found");
+        }
+        if (aids.isEmpty()) {
+            aids = getRegisteredAids();
+        }
+        if (aids.isEmpty() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Nothing registered from this process yet, ask the NFC service
+            List<String> registered = emulation.getAidsForService(serviceComponent, CATEGORY);
+            if (registered != null) {
+                aids = registered;
+            }
+        }
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        for (String aid : aids) {
+            result.put(aid, emulation.isDefaultServiceForAid(serviceComponent, aid));
+        }
+        return result;
+    }
+
+    /**
+     * @param callback Run on the registration thread after each applied request, may be null
+     */
+    public void setChangeCallback(Runnable callback) {
+        changeCallback = callback;
+    }
+
+    /**
+     * @return The handler of the registration thread, for other work that talks to the NFC service
+     */
+    Handler getHandler() {
+        return handler;
+    }
+
+    public void release() {
+        handler.removeCallbacks(flush);
+        thread.quitSafely();
+    }
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            Set<String> aids;
+            List<Listener> listeners;
+            Set<String> current;
+            synchronized (AidRegistrar.this) {
+                if (pendingListeners.isEmpty()) {
+                    return;
+                }
+                aids = pendingAids;
+                listeners = new ArrayList<>(pendingListeners);
+                pendingAids = null;
+                pendingListeners.clear();
+                current = registeredAids;
+            }
+
+            boolean result;
+            try {
+                result = apply(aids, current);
+            } catch (Exception e) {
+                for (Listener listener : listeners) {
+                    listener.onError(e);
+                }
+                return;
+            }
+            for (Listener listener : listeners) {
+                listener.onResult(result);
+            }
+            Runnable callback = changeCallback;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+    };
+
+    private boolean apply(Set<String> aids, Set<String> current) {
+        if (aids.equals(current)) {
+            Log.i(TAG, "AIDs unchanged, skipping registration");
+            return true;
+        }
+
+        CardEmulation emulation = getCardEmulation();
+        if (emulation == null) {
+            throw new IllegalStateException("No NFC adapted found");
+        }
+
+        if (current != null) {
+            int added = 0;
+            for (String aid : aids) {
+                if (!current.contains(aid)) {
+                    added++;
+                }
+            }
+            Log.i(TAG, "Applying AID diff: +" + added + " -" + (current.size() - (aids.size() - added)));
+        }
+
+        boolean result;
+        if (aids.isEmpty()) {
+            result = emulation.removeAidsForService(serviceComponent, CATEGORY);
+        } else {
+            result = emulation.registerAidsForService(serviceComponent, CATEGORY, new ArrayList<>(aids));
+        }
+        synchronized (this) {
+            registeredAids = result ? aids : null;
+        }
+        return result;
+    }
+
+    private void resolveAdapter() {
+        if (adapterResolved) {
+            return;
+        }
+        NfcManager manager = (NfcManager) context.getSystemService(Context.NFC_SERVICE);
+        adapter = manager != null ? manager.getDefaultAdapter() : null;
+        adapterResolved = true;
+    }
+
+    private void resolveCardEmulation() {
+        if (cardEmulationResolved) {
+            return;
+        }
+        resolveAdapter();
+        cardEmulation = null;
+        if (adapter != null && context.getPackageManager()
+                .hasSystemFeature(PackageManager.FEATURE_NFC_HOST_CARD_EMULATION)) {
+            try {
+                cardEmulation = CardEmulation.getInstance(adapter);
+            } catch (UnsupportedOperationException e) {
+                Log.w(TAG, "Card emulation is not supported", e);
+            }
+        }
+        cardEmulationResolved = true;
+    }
+
+}
@@ -0,0 +1,136 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+
+/**
+ * Answers INTERNAL AUTHENTICATE challenges with a keyed MAC over challenge || idTag,
+ * using either HMAC-SHA256 or AES-CMAC (NIST SP 800-38B), computed by {@link KeyedMac}.
+ * <p>
+ * The {@link KeyedMac} is set up once per key and the idTag bytes are encoded once
+ * per content version. Answering a challenge then only runs the MAC over the
+ * challenge and the idTag into the response buffer, without allocating.
+ */
+public class Authenticator {
+
+    private static final String TAG = "Authenticator";
+
+    private static final String PREF_ALGORITHM = "AUTH_ALGORITHM";
+    // Kept by SecretWarehouse, in the default preferences before
+    static final String PREF_KEY = "AUTH_KEY";
+
+    public static final String HMAC_SHA256 = KeyedMac.HMAC_SHA256;
+    public static final String AES_CMAC = KeyedMac.AES_CMAC;
+
+    private static Authenticator sInstance = null;
+
+    private final Context context;
+    private String algorithm = null;
+    private KeyedMac mac = null;
+
+    private byte[] idTagBytes = null;
+    private long idTagVersion = -1;
+    // SharedConfig version the key was loaded at
+    private long keyVersion = 0;
+
+    public static synchronized Authenticator get(Context c) {
+        if (sInstance == null) {
+            sInstance = new Authenticator(c.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private Authenticator(Context context) {
+        this.context = context;
+        load();
+    }
+
+    // Called with the lock held, or from the constructor
+    private void load() {
+        keyVersion = SharedConfig.getVersion(context, SharedConfig.AUTHENTICATION);
+        algorithm = null;
+        mac = null;
+        SharedPreferences prefs = SharedConfig.getPreferences(context);
+        String storedAlgorithm = prefs.getString(PREF_ALGORITHM, null);
+        byte[] storedKey = storedAlgorithm != null ? SecretWarehouse.getSecret(context, PREF_KEY, PREF_KEY) : null;
+        if (storedKey != null) {
+            try {
+                init(storedAlgorithm, storedKey);
+            } catch (Exception e) {
+                Log.e(TAG, "Ignoring invalid authentication key", e);
+            }
+        }
+    }
+
+    /**
+     * Adopts the key another process changed, e.g. the app process for a service
+     * running in its own
+     */
+    private void sync() {
+        if (SharedConfig.getVersion(context, SharedConfig.AUTHENTICATION) != keyVersion) {
+            load();
+        }
+    }
+
+    /**
+     * Persists the key and precomputes its schedule. A null algorithm disables authentication.
+     */
+    public synchronized void configure(String newAlgorithm, byte[] key) throws GeneralSecurityException {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(context).edit();
+        if (newAlgorithm == null) {
+            algorithm = null;
+            mac = null;
+            editor.remove(PREF_ALGORITHM).remove(PREF_KEY).commit();
+            SecretWarehouse.removeSecret(context, PREF_KEY);
+            keyVersion = SharedConfig.publish(context, SharedConfig.AUTHENTICATION);
+            return;
+        }
+        init(newAlgorithm, key);
+        SecretWarehouse.setSecret(context, PREF_KEY, key);
+        editor.putString(PREF_ALGORITHM, newAlgorithm).commit();
+        keyVersion = SharedConfig.publish(context, SharedConfig.AUTHENTICATION);
+    }
+
+    public synchronized boolean isEnabled() {
+        sync();
+        return algorithm != null;
+    }
+
+    /**
+     * @return The MAC length in bytes, 0 when authentication is disabled
+     */
+    public synchronized int getMacLength() {
+        sync();
+        return mac != null ? mac.getLength() : 0;
+    }
+
+    /**
+     * Writes MAC(challenge || idTag) into the response at offset 0
+     *
+     * @return The number of bytes written, 0 when authentication is disabled
+     */
+    public synchronized int authenticate(byte[] challenge, int offset, int length, byte[] response) throws GeneralSecurityException {
+        sync();
+        if (algorithm == null) {
+            return 0;
+        }
+        long version = IDWarehouse.getVersion();
+        if (idTagBytes == null || idTagVersion != version) {
+            idTagBytes = IDWarehouse.getID(context).getBytes(Charset.forName("UTF-8"));
+            idTagVersion = version;
+        }
+        return mac.compute(challenge, offset, length, idTagBytes, 0, idTagBytes.length, response);
+    }
+
+    private void init(String newAlgorithm, byte[] key) throws GeneralSecurityException {
+        mac = new KeyedMac(newAlgorithm, key);
+        algorithm = newAlgorithm;
+        Log.i(TAG, "Authentication key set for " + algorithm);
+    }
+
+}
@@ -0,0 +1,258 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+
+import java.util.Arrays;
+
+/**
+ * Counters describing how CardService has been answering readers. Updated from
+ * the APDU thread and read synchronously from JS.
+ * <p>
+ * The process running CardService publishes them through the shared card state
+ * after every update, see {@link #publishTo(Context)}, so the app process reads
+ * them with {@link #snapshot(Context)} even when the service runs in a process of
+ * its own. Resets from the app process go through a {@link SharedConfig} version,
+ * which the service adopts on its next update.
+ */
+public class CardMetrics {
+
+    // Slots of the published metrics, see CardStateStore#writeMetrics
+    private static final int METRIC_APDUS = 0;
+    private static final int METRIC_ERRORS = 1;
+    private static final int METRIC_TAPS = 2;
+    private static final int METRIC_LAST_TAP_TIME = 3;
+    private static final int METRIC_LAST_PROCESSING = 4;
+    private static final int METRIC_MAX_PROCESSING = 5;
+    private static final int METRIC_THROTTLED_APDUS = 6;
+    private static final int METRIC_THROTTLED_SESSIONS = 7;
+    // Version of the SharedConfig.METRICS slot the published counters were last reset at
+    private static final int METRIC_RESET_VERSION = 8;
+    // Of the process publishing, kept by resets
+    private static final int METRIC_FIRST_TAP_PROCESSING = 9;
+    private static final int METRIC_COUNT = 10;
+
+    private static final Object sLock = new Object();
+    // Set in the process running CardService
+    private static CardStateStore sStore = null;
+    private static long sResetVersion = 0;
+    private static final long[] sPublished = new long[METRIC_COUNT];
+    private static long sApduCount = 0;
+    private static long sErrorCount = 0;
+    private static long sTapCount = 0;
+    private static long sLastTapTime = 0;
+    private static long sLastProcessingNanos = 0;
+    private static long sMaxProcessingNanos = 0;
+    private static long sThrottledApduCount = 0;
+    private static long sThrottledSessionCount = 0;
+    // Processing time of the first session of the process, 0 until it ended
+    private static long sFirstTapProcessingNanos = 0;
+
+    public static class Snapshot {
+        public final long apduCount;
+        public final long errorCount;
+        public final long tapCount;
+        public final long lastTapTime;
+        public final long lastProcessingNanos;
+        public final long maxProcessingNanos;
+        public final long throttledApduCount;
+        public final long throttledSessionCount;
+        public final long firstTapProcessingNanos;
+
+        Snapshot(long apduCount, long errorCount, long tapCount, long lastTapTime,
+                 long lastProcessingNanos, long maxProcessingNanos,
+                 long throttledApduCount, long throttledSessionCount, long firstTapProcessingNanos) {
+            this.apduCount = apduCount;
+            this.errorCount = errorCount;
+            this.tapCount = tapCount;
+            this.lastTapTime = lastTapTime;
+            this.lastProcessingNanos = lastProcessingNanos;
+            this.maxProcessingNanos = maxProcessingNanos;
+            this.throttledApduCount = throttledApduCount;
+            this.throttledSessionCount = throttledSessionCount;
+            this.firstTapProcessingNanos = firstTapProcessingNanos;
+        }
+    }
+
+    /**
+     * Publishes the counters from now on, continuing those an earlier process
+     * published; the first tap processing time starts over with this process.
+     * Called by CardService.
+     */
+    static void publishTo(Context c) {
+        CardStateStore store = IDWarehouse.getStore(c);
+        synchronized (sLock) {
+            if (store == null || store == sStore) {
+                return;
+            }
+            sStore = store;
+            long[] values = new long[METRIC_COUNT];
+            if (store.readMetrics(values)) {
+                sApduCount = values[METRIC_APDUS];
+                sErrorCount = values[METRIC_ERRORS];
+                sTapCount = values[METRIC_TAPS];
+                sLastTapTime = values[METRIC_LAST_TAP_TIME];
+                sLastProcessingNanos = values[METRIC_LAST_PROCESSING];
+                sMaxProcessingNanos = values[METRIC_MAX_PROCESSING];
+                sThrottledApduCount = values[METRIC_THROTTLED_APDUS];
+                sThrottledSessionCount = values[METRIC_THROTTLED_SESSIONS];
+                sResetVersion = values[METRIC_RESET_VERSION];
+            }
+            publish();
+        }
+    }
+
+    static void onApdu(long processingNanos, boolean error) {
+        synchronized (sLock) {
+            adoptReset();
+            sApduCount++;
+            if (error) {
+                sErrorCount++;
+            }
+            sLastProcessingNanos = processingNanos;
+            if (processingNanos > sMaxProcessingNanos) {
+                sMaxProcessingNanos = processingNanos;
+            }
+            publish();
+        }
+    }
+
+    static void onTap() {
+        synchronized (sLock) {
+            adoptReset();
+            sTapCount++;
+            sLastTapTime = System.currentTimeMillis();
+            publish();
+        }
+    }
+
+    /**
+     * Counts an APDU refused because its reader ran out of WorkBudget
+     *
+     * @param firstOfSession True for the first refused APDU of the session
+     */
+    static void onThrottled(boolean firstOfSession) {
+        synchronized (sLock) {
+            adoptReset();
+            sThrottledApduCount++;
+            if (firstOfSession) {
+                sThrottledSessionCount++;
+            }
+            publish();
+        }
+    }
+
+    /**
+     * Records the processing time of a finished session, the first one of the
+     * process runs on cold code and is kept apart from the others
+     *
+     * @return True when the session was the first one
+     */
+    static boolean onSessionFinished(long processingNanos) {
+        synchronized (sLock) {
+            if (sFirstTapProcessingNanos != 0) {
+                return false;
+            }
+            sFirstTapProcessingNanos = Math.max(processingNanos, 1);
+            publish();
+            return true;
+        }
+    }
+
+    /**
+     * @return The counters of the process running CardService, this one if it never
+     * published any
+     */
+    public static Snapshot snapshot(Context c) {
+        CardStateStore store = IDWarehouse.getStore(c);
+        long[] values = new long[METRIC_COUNT];
+        if (store == null || !store.readMetrics(values)) {
+            return snapshot();
+        }
+        if (values[METRIC_RESET_VERSION] != store.getConfigVersion(SharedConfig.METRICS)) {
+            // Reset since they were published, the service clears them on its next update
+            Arrays.fill(values, 0, METRIC_RESET_VERSION, 0);
+        }
+        return new Snapshot(values[METRIC_APDUS], values[METRIC_ERRORS], values[METRIC_TAPS],
+                values[METRIC_LAST_TAP_TIME], values[METRIC_LAST_PROCESSING], values[METRIC_MAX_PROCESSING],
+                values[METRIC_THROTTLED_APDUS], values[METRIC_THROTTLED_SESSIONS],
+                values[METRIC_FIRST_TAP_PROCESSING]);
+    }
+
+    /**
+     * @return The counters of this process
+     */
+    public static Snapshot snapshot() {
+        synchronized (sLock) {
+            return new Snapshot(sApduCount, sErrorCount, sTapCount, sLastTapTime,
+                    sLastProcessingNanos, sMaxProcessingNanos, sThrottledApduCount, sThrottledSessionCount,
+                    sFirstTapProcessingNanos);
+        }
+    }
+
+    /**
+     * Clears the counters, in the process running CardService too
+     */
+    public static void reset(Context c) {
+        long version = SharedConfig.publish(c, SharedConfig.METRICS);
+        synchronized (sLock) {
+            clear();
+            if (sStore != null) {
+                sResetVersion = version;
+                publish();
+            }
+        }
+    }
+
+    /**
+     * Clears the counters of this process, the first tap processing time describes
+     * the process and is kept
+     */
+    public static void reset() {
+        synchronized (sLock) {
+            clear();
+        }
+    }
+
+    // Called with the lock held
+    private static void adoptReset() {
+        if (sStore == null) {
+            return;
+        }
+        long version = sStore.getConfigVersion(SharedConfig.METRICS);
+        if (version != sResetVersion) {
+            clear();
+            sResetVersion = version;
+        }
+    }
+
+    // Called with the lock held
+    private static void publish() {
+        if (sStore == null) {
+            return;
+        }
+        sPublished[METRIC_APDUS] = sApduCount;
+        sPublished[METRIC_ERRORS] = sErrorCount;
+        sPublished[METRIC_TAPS] = sTapCount;
+        sPublished[METRIC_LAST_TAP_TIME] = sLastTapTime;
+        sPublished[METRIC_LAST_PROCESSING] = sLastProcessingNanos;
+        sPublished[METRIC_MAX_PROCESSING] = sMaxProcessingNanos;
+        sPublished[METRIC_THROTTLED_APDUS] = sThrottledApduCount;
+        sPublished[METRIC_THROTTLED_SESSIONS] = sThrottledSessionCount;
+        sPublished[METRIC_RESET_VERSION] = sResetVersion;
+        sPublished[METRIC_FIRST_TAP_PROCESSING] = sFirstTapProcessingNanos;
+        sStore.writeMetrics(sPublished);
+    }
+
+    // Called with the lock held
+    private static void clear() {
+        sApduCount = 0;
+        sErrorCount = 0;
+        sTapCount = 0;
+        sLastTapTime = 0;
+        sLastProcessingNanos = 0;
+        sMaxProcessingNanos = 0;
+        sThrottledApduCount = 0;
+        sThrottledSessionCount = 0;
+    }
+
+}
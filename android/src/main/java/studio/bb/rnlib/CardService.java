@@ -1,16 +1,27 @@
 package studio.bb.rnlib;
 
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
 import android.nfc.NdefRecord;
 import android.nfc.cardemulation.HostApduService;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.Gravity;
 import android.widget.Toast;
 
-import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.util.List;
 
 import studio.bb.rnlib.utils.ByteUtils;
 
@@ -23,214 +34,362 @@ import studio.bb.rnlib.utils.ByteUtils;
  * Operation Technical Specification, version 3.0 2014-07-30 2. APDU example in
  * libnfc: http://nfc-tools.org/index.php?title=Libnfc:APDU_example
  */
-public class CardService extends HostApduService {
+public class CardService extends HostApduService implements ApduEngine.Delegate {
 
     private static final String TAG = "CardService";
 
-    private static final byte[] APDU_SELECT = {
-            (byte) 0x00, // CLA - Class - Class of instruction
-            (byte) 0xA4, // INS - Instruction - Instruction code
-            (byte) 0x04, // P1 - Parameter 1 - Instruction parameter 1
-            (byte) 0x00 // P2 - Parameter 2 - Instruction parameter 2
-    };
-
-    private static final byte[] CAPABILITY_CONTAINER_OK = {
-            (byte) 0x00, // CLA - Class - Class of instruction
-            (byte) 0xa4, // INS - Instruction - Instruction code
-            (byte) 0x00, // P1 - Parameter 1 - Instruction parameter 1
-            (byte) 0x0c, // P2 - Parameter 2 - Instruction parameter 2
-            (byte) 0x02, // Lc field - Number of bytes present in the data field of the command
-            (byte) 0xe1, (byte) 0x03 // file identifier of the CC file
-    };
-
-    private static final byte[] READ_CAPABILITY_CONTAINER = {
-            (byte) 0x00, // CLA - Class - Class of instruction
-            (byte) 0xb0, // INS - Instruction - Instruction code
-            (byte) 0x00, // P1 - Parameter 1 - Instruction parameter 1
-            (byte) 0x00, // P2 - Parameter 2 - Instruction parameter 2
-            (byte) 0x0f // Le field - Number of bytes expected in the data field of the response
-    };
-
-    private static final byte[] READ_CAPABILITY_CONTAINER_RESPONSE = {
-            (byte) 0x00, (byte) 0x0F, // CCLEN length of the CC file
-            (byte) 0x20, // Mapping Version 2.0
-            (byte) 0xFF, (byte) 0xFF, // MLe maximum R-APDU data size allowed
-            (byte) 0xFF, (byte) 0xFF, // MLc maximum C-APDU data size allowed
-            (byte) 0x04, // T field of the NDEF File Control TLV
-            (byte) 0x06, // L field of the NDEF File Control TLV
-            (byte) 0xE1, (byte) 0x04, // File Identifier of NDEF file
-            (byte) 0xFF, (byte) 0xFE, // Maximum NDEF file size of 65534 bytes
-            (byte) 0x00, // Read access without any security
-            (byte) 0xFF, // Write access not allowed
-            (byte) 0x90, (byte) 0x00 // A_OKAY
-    };
-
-    private static final byte[] NDEF_SELECT_OK = {
-            (byte) 0x00, // CLA - Class - Class of instruction
-            (byte) 0xa4, // Instruction byte (INS) for Select command
-            (byte) 0x00, // Parameter byte (P1), select by identifier
-            (byte) 0x0c, // Parameter byte (P1), select by identifier
-            (byte) 0x02, // Lc field - Number of bytes present in the data field of the command
-            (byte) 0xE1, (byte) 0x04 // file identifier of the NDEF file retrieved from the CC file
-    };
-
-    private static final byte[] NDEF_READ_BINARY = {
-            (byte) 0x00, // Class byte (CLA)
-            (byte) 0xb0 // Instruction byte (INS) for ReadBinary command
-    };
-
-    private static final byte[] NDEF_READ_BINARY_NLEN = {
-            (byte) 0x00, // Class byte (CLA)
-            (byte) 0xb0, // Instruction byte (INS) for ReadBinary command
-            (byte) 0x00, (byte) 0x00, // Parameter byte (P1, P2), offset inside the CC file
-            (byte) 0x02 // Le field
-    };
-
-    private static final byte[] A_OKAY = {
-            (byte) 0x90, // SW1 Status byte 1 - Command processing status
-            (byte) 0x00 // SW2 Status byte 2 - Command processing qualifier
-    };
-
     private static final byte[] A_ERROR = {
             (byte) 0x6A, // SW1 Status byte 1 - Command processing status
             (byte) 0x82 // SW2 Status byte 2 - Command processing qualifier
     };
 
+    // Answer to readers that ran out of WorkBudget, conditions of use not satisfied
+    private static final byte[] A_THROTTLED = {
+            (byte) 0x69,
+            (byte) 0x85
+    };
+
     private static final byte[] NDEF_ID = {
             (byte) 0xE1, 
             (byte) 0x04
     };
 
-    // In the scenario that we have done a CC read, the same byte[] match
-    // for ReadBinary would trigger and we don't want that in succession
-    private boolean READ_CAPABILITY_CONTAINER_CHECK = false;
-
-    private NdefRecord NDEF_URI = null;
-    private byte[] NDEF_URI_BYTES = null;
-    private byte[] NDEF_URI_LEN = null;
+    // The Type 4 Tag command flow, answered into RESPONSE_BUFFER
+    private final ApduEngine engine = new ApduEngine(this);
+    private final byte[] RESPONSE_BUFFER = new byte[ApduEngine.MAX_RESPONSE_LENGTH];
+    // Responses handed to the platform, which sends whole arrays, one per length so
+    // none is allocated per APDU. Reusing them is safe as the reader only sends the
+    // next command once it got the response to the last one.
+    private final byte[][] RESPONSES = new byte[ApduEngine.MAX_RESPONSE_LENGTH + 1][];
+
+    // NLEN followed by the NDEF message, i.e. the whole content of the NDEF file
+    private byte[] NDEF_FILE = null;
+    // True when NDEF_FILE holds a rotating token rather than the static idTag
+    private boolean servingToken = false;
     
     // idTag is the variable that is going to hold NDEF message
     private String idTag = null;
 
+    // Current session, written to the TapJournal when the reader deactivates us
+    private int sessionApdus = 0;
+    private int sessionBytes = 0;
+    private int sessionResult = TapJournal.RESULT_INCOMPLETE;
+    private boolean sessionThrottled = false;
+    private long sessionNanos = 0;
+
+    // Cuts off readers stuck in a loop, see SettingsWarehouse.setWorkBudget
+    private WorkBudget budget = null;
+
+    // Receives the spans of every APDU, see setTracer
+    private static volatile Tracer sTracer = Tracer.NONE;
+    // sTracer as read when the current APDU started, so its spans stay balanced
+    private Tracer tracer = Tracer.NONE;
+
+    // Set when APDUs are processed off the main thread, see SettingsWarehouse.setAsyncApdu
+    private HandlerThread apduThread = null;
+    private Handler apduHandler = null;
+    private Handler mainHandler = null;
+    // Bumped on every deactivation so APDUs queued for a finished session are dropped
+    private volatile int sessionGeneration = 0;
+
     @Override
-    public byte[] processCommandApdu(byte[] commandApdu, Bundle extras) {
+    public void onCreate() {
+        super.onCreate();
+        mainHandler = new Handler(Looper.getMainLooper());
+        budget = new WorkBudget(SettingsWarehouse.getWorkBudget(this.getApplicationContext()));
+        // Lets the app process read the counters when this is a process of its own
+        CardMetrics.publishTo(this.getApplicationContext());
+        // Have the first tap of a new process find its token ready
+        TokenPool.get(this.getApplicationContext()).warmUp();
+        if (sTracer == Tracer.NONE && SettingsWarehouse.isTracing(this.getApplicationContext())) {
+            sTracer = new SystemTracer();
+        }
+        if (SettingsWarehouse.isAsyncApdu(this.getApplicationContext())) {
+            apduThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+            apduThread.start();
+            apduHandler = new Handler(apduThread.getLooper());
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (apduThread != null) {
+            apduHandler.removeCallbacksAndMessages(null);
+            apduThread.quitSafely();
+            apduThread = null;
+            apduHandler = null;
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public byte[] processCommandApdu(final byte[] commandApdu, Bundle extras) {
+        if (apduHandler == null) {
+            return processCommandApdu(commandApdu);
+        }
+
+        // Answer from the APDU thread; a single thread keeps the session's APDUs in order
+        final int generation = sessionGeneration;
+        apduHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != sessionGeneration) {
+                    return;
+                }
+                byte[] response = processCommandApdu(commandApdu);
+                if (generation == sessionGeneration) {
+                    sendResponseApdu(response);
+                }
+            }
+        });
+        return null;
+    }
+
+    private byte[] processCommandApdu(byte[] commandApdu) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        if (!budget.admit(start / 1000000)) {
+            // Nothing is logged, formatted or shown for a reader that is out of budget
+            CardMetrics.onThrottled(!sessionThrottled);
+            sessionThrottled = true;
+            sessionApdus++;
+            sessionBytes += A_THROTTLED.length;
+            if (sessionResult != TapJournal.RESULT_OK) {
+                sessionResult = TapJournal.RESULT_THROTTLED;
+            }
+            return A_THROTTLED;
+        }
+        tracer = sTracer;
+        tracer.begin(Tracer.SPAN_APDU);
+        byte[] response;
+        try {
+            response = handleCommandApdu(commandApdu);
+        } finally {
+            tracer.end();
+        }
+        boolean error = response == A_ERROR || !ApduEngine.isSuccess(engine.getLastStatus());
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        CardMetrics.onApdu(elapsed, error);
+        sessionNanos += elapsed;
+        budget.record(response.length, error);
+        if (budget.isExhausted()) {
+            Log.w(TAG, "Work budget exhausted, refusing further APDUs");
+        }
+        sessionApdus++;
+        sessionBytes += response.length;
+        if (error && sessionResult != TapJournal.RESULT_OK) {
+            sessionResult = TapJournal.RESULT_ERROR;
+        }
+        return response;
+    }
+
+    private byte[] handleCommandApdu(byte[] commandApdu) {
 
-        if (IDWarehouse.isEmptyID(this.getApplicationContext())) {
+        tracer.begin(Tracer.SPAN_ID_LOOKUP);
+        boolean emptyID = IDWarehouse.isEmptyID(this.getApplicationContext());
+        tracer.end();
+        if (emptyID) {
+            tracer.begin(Tracer.SPAN_TOAST);
             showToast(ToastWarehouse.getErrorToast(this.getApplicationContext()));
+            tracer.end();
+            tracer.begin(Tracer.SPAN_LOG);
             Log.wtf(TAG, "processCommandApdu() | No Idtag set for user or retrieved from context!!!");
+            tracer.end();
             return A_ERROR;
         }
 
         //
         // The following flow is based on Appendix E "Example of Mapping Version 2.0
         // Command Flow"
-        // in the NFC Forum specification
-        //
-        Log.i(TAG, "processCommandApdu() | incoming commandApdu: " + ByteUtils.bytesToHex(commandApdu));
-
-        //
-        // First command: NDEF Tag Application select (Section 5.5.2 in NFC Forum spec)
-        // For ByteUtils.startsWith method first argument is the source byte array i.e.,
-        // commandApdu and second argument is the match i.e., APDU_SELECT
+        // in the NFC Forum specification, see ApduEngine
         //
-        if (ByteUtils.startsWith(commandApdu, APDU_SELECT)) {
-            Log.i(TAG, "APDU_SELECT triggered. Our Response: " + ByteUtils.bytesToHex(A_OKAY));
-            return A_OKAY;
+        boolean debug = Log.isLoggable(TAG, Log.DEBUG);
+        if (debug) {
+            tracer.begin(Tracer.SPAN_LOG);
+            Log.d(TAG, "processCommandApdu() | incoming commandApdu: " + ByteUtils.bytesToHex(commandApdu));
+            tracer.end();
         }
 
-        //
-        // Second command: Capability Container select (Section 5.5.3 in NFC Forum spec)
-        //
-        if (ByteUtils.equals(CAPABILITY_CONTAINER_OK, commandApdu)) {
-            Log.i(TAG, "CAPABILITY_CONTAINER_OK triggered. Our Response: " + ByteUtils.bytesToHex(A_OKAY));
-            return A_OKAY;
+        tracer.begin(Tracer.SPAN_RESPONSE);
+        int length = engine.process(commandApdu, commandApdu.length, RESPONSE_BUFFER);
+        byte[] response = RESPONSES[length];
+        if (response == null) {
+            response = RESPONSES[length] = new byte[length];
         }
-
-        //
-        // Third command: ReadBinary data from CC file (Section 5.5.4 in NFC Forum spec)
-        //
-        if (ByteUtils.equals(READ_CAPABILITY_CONTAINER, commandApdu) && !READ_CAPABILITY_CONTAINER_CHECK) {
-            Log.i(TAG, "READ_CAPABILITY_CONTAINER triggered. Our Response: "
-                    + ByteUtils.bytesToHex(READ_CAPABILITY_CONTAINER_RESPONSE));
-            READ_CAPABILITY_CONTAINER_CHECK = true;
-
-            String currentIdTag = IDWarehouse.getID(this.getApplicationContext());
-            if (!TextUtils.equals(idTag, currentIdTag)) {
-                idTag = currentIdTag;
-                Log.i(TAG, "idTag reset: " + idTag);
-                NDEF_URI = createTextRecord("en", idTag, NDEF_ID);
-                NDEF_URI_BYTES = NDEF_URI.toByteArray();
-                NDEF_URI_LEN = ByteUtils.fillByteArrayToFixedDimension(BigInteger.valueOf(NDEF_URI_BYTES.length).toByteArray(), 2);
-            }
-
-            return READ_CAPABILITY_CONTAINER_RESPONSE;
+        System.arraycopy(RESPONSE_BUFFER, 0, response, 0, length);
+        tracer.end();
+
+        switch (engine.getLastCommand()) {
+            case ApduEngine.COMMAND_READ_NDEF:
+                if (engine.getLastStatus() == ApduEngine.SW_OK) {
+                    // Counted and toasted once the session is over, not for every chunk read
+                    sessionResult = TapJournal.RESULT_OK;
+                }
+                break;
+            case ApduEngine.COMMAND_UNKNOWN:
+                Log.wtf(TAG, "processCommandApdu() | Invalid command!");
+                break;
         }
+        if (debug) {
+            tracer.begin(Tracer.SPAN_LOG);
+            Log.d(TAG, "Our Response: " + ByteUtils.bytesToHex(response));
+            tracer.end();
+        }
+        return response;
+    }
 
-        //
-        // Fourth command: NDEF Select command (Section 5.5.5 in NFC Forum spec)
-        //
-        if (ByteUtils.equals(NDEF_SELECT_OK, commandApdu)) {
-            Log.i(TAG, "NDEF_SELECT_OK triggered. Our Response: " + ByteUtils.bytesToHex(A_OKAY));
-            return A_OKAY;
+    @Override
+    public byte[] loadNdefFile() {
+        tracer.begin(Tracer.SPAN_ID_LOOKUP);
+        String currentIdTag = IDWarehouse.getID(this.getApplicationContext());
+        tracer.end();
+        TokenPool tokenPool = TokenPool.get(this.getApplicationContext());
+        if (tokenPool.isEnabled()) {
+            // Rotating mode: serve the next pre-encoded one-time token of this session
+            idTag = currentIdTag;
+            servingToken = true;
+            NDEF_FILE = tokenPool.take();
+        } else if (!TextUtils.equals(idTag, currentIdTag) || servingToken) {
+            servingToken = false;
+            idTag = currentIdTag;
+            Log.i(TAG, "idTag reset: " + idTag);
+            NDEF_FILE = ProfileWarehouse.getNdefFile(idTag);
+            if (NDEF_FILE == null) {
+                tracer.begin(Tracer.SPAN_NDEF_ENCODING);
+                NDEF_FILE = createNdefFile(idTag);
+                tracer.end();
+            }
         }
+        return NDEF_FILE;
+    }
 
-        //
-        // Fifth command: ReadBinary, read NLEN field
-        //
-        if (ByteUtils.equals(NDEF_READ_BINARY_NLEN, commandApdu)) {
-            // Build our response
-            byte[] response = new byte[NDEF_URI_LEN.length + A_OKAY.length];
-            System.arraycopy(NDEF_URI_LEN, 0, response, 0, NDEF_URI_LEN.length);
-            System.arraycopy(A_OKAY, 0, response, NDEF_URI_LEN.length, A_OKAY.length);
-
-            Log.i(TAG, "NDEF_READ_BINARY_NLEN triggered. Our Response: " + ByteUtils.bytesToHex(response));
-            return response;
+    @Override
+    public int authenticate(byte[] challenge, int offset, int length, byte[] response) {
+        try {
+            return Authenticator.get(this.getApplicationContext()).authenticate(challenge, offset, length, response);
+        } catch (Exception e) {
+            Log.e(TAG, "INTERNAL_AUTHENTICATE failed", e);
+            return -1;
         }
+    }
 
-        //
-        // Sixth command: ReadBinary, get NDEF data
-        //
-        if (ByteUtils.equals(NDEF_READ_BINARY, ByteUtils.subbytes(commandApdu, 0, 2))) {
-            int offset = Integer.parseInt(ByteUtils.bytesToHex(ByteUtils.subbytes(commandApdu, 2, 4)), 16);
-            int length = Integer.parseInt(ByteUtils.bytesToHex(ByteUtils.subbytes(commandApdu, 4, 5)), 16);
+    @Override
+    public FileSystem loadFileSystem() {
+        return FileWarehouse.getFileSystem(this.getApplicationContext());
+    }
 
-            // Build our response
-            byte[] fullResponse = new byte[NDEF_URI_LEN.length + NDEF_URI_BYTES.length];
-            System.arraycopy(NDEF_URI_LEN, 0, fullResponse, 0, NDEF_URI_LEN.length);
-            System.arraycopy(NDEF_URI_BYTES, 0, fullResponse, NDEF_URI_LEN.length, NDEF_URI_BYTES.length);
+    @Override
+    public void onDeactivated(final int reason) {
+        Log.i(TAG, "onDeactivated() Fired! Reason: " + reason);
+        if (apduHandler == null) {
+            finishSession(reason);
+            return;
+        }
+        sessionGeneration++;
+        apduHandler.removeCallbacksAndMessages(null);
+        apduHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                finishSession(reason);
+            }
+        });
+    }
 
-            Log.i(TAG, "NDEF_READ_BINARY triggered");
-            Log.d(TAG, "NDEF URI: " + NDEF_URI.toString());
-            Log.d(TAG, "NDEF_READ_BINARY - Full bytes: " + ByteUtils.bytesToHex(fullResponse));
-            Log.d(TAG, "NDEF_READ_BINARY - Offset: " + offset + ", Length: " + length);
+    private void finishSession(int reason) {
+        if (sessionApdus > 0 && CardMetrics.onSessionFinished(sessionNanos)) {
+            // Parsed by android/baseline-profile/measure-first-tap.sh
+            Log.i(TAG, "First tap processed in " + sessionNanos / 1000 + " us over " + sessionApdus + " APDUs");
+        }
+        if (sessionResult == TapJournal.RESULT_OK) {
+            Log.d(TAG, "NDEF idTag: " + idTag);
+            CardMetrics.onTap();
+            showToast(ToastWarehouse.getSuccessToast(this.getApplicationContext()));
+        }
+        if (sessionApdus > 0) {
+            TapJournal.get(this.getApplicationContext()).append(System.currentTimeMillis(),
+                    IDWarehouse.getStateVersion(this.getApplicationContext()), idTag != null ? idTag.hashCode() : 0, sessionBytes,
+                    sessionApdus, sessionResult, reason, engine.getAid(), engine.getAidLength());
+        }
+        engine.reset();
+        budget.endSession();
+        budget.setConfig(SettingsWarehouse.getWorkBudget(this.getApplicationContext()));
+        sessionApdus = 0;
+        sessionBytes = 0;
+        sessionResult = TapJournal.RESULT_INCOMPLETE;
+        sessionThrottled = false;
+        sessionNanos = 0;
+    }
 
-            byte[] slicedResponse = ByteUtils.subbytes(fullResponse, offset, fullResponse.length);
-            int realLength = slicedResponse.length <= length ? slicedResponse.length : length;
-            byte[] response = new byte[realLength + A_OKAY.length];
+    /**
+     * Routes the spans around each stage of answering an APDU, {@link Tracer#NONE}
+     * turns tracing off. Applies to the process calling it, from the next APDU.
+     */
+    public static void setTracer(Tracer tracer) {
+        sTracer = tracer != null ? tracer : Tracer.NONE;
+    }
 
-            System.arraycopy(slicedResponse, 0, response, 0, realLength);
-            System.arraycopy(A_OKAY, 0, response, realLength, A_OKAY.length);
+    /**
+     * Tells whether the calling process is the one CardService is declared to run in.
+     * Apps that move the service into its own process (android:process=":hce") call
+     * this first in Application.onCreate() and skip the React Native setup when it
+     * returns true, so a tap does not pay for starting the whole app.
+     */
+    public static boolean isServiceProcess(Context c) {
+        return TextUtils.equals(getProcessName(c), getServiceProcessName(c));
+    }
 
-            Log.i(TAG, "Our Response: " + ByteUtils.bytesToHex(response));
-            READ_CAPABILITY_CONTAINER_CHECK = false;
+    /**
+     * @return True when CardService is declared to run outside the application's main process
+     */
+    public static boolean isSeparateProcess(Context c) {
+        String serviceProcess = getServiceProcessName(c);
+        return serviceProcess != null && !serviceProcess.equals(c.getApplicationInfo().processName);
+    }
 
-            showToast(ToastWarehouse.getSuccessToast(this.getApplicationContext()));
+    private static String getServiceProcessName(Context c) {
+        try {
+            ServiceInfo info = c.getPackageManager().getServiceInfo(new ComponentName(c, CardService.class), 0);
+            return info.processName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
 
-            return response;
+    private static String getProcessName(Context c) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return Application.getProcessName();
+        }
+        ActivityManager manager = (ActivityManager) c.getSystemService(Context.ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes = manager != null ? manager.getRunningAppProcesses() : null;
+        if (processes != null) {
+            int pid = Process.myPid();
+            for (ActivityManager.RunningAppProcessInfo process : processes) {
+                if (process.pid == pid) {
+                    return process.processName;
+                }
+            }
         }
+        return null;
+    }
 
-        //
-        // We're doing something outside our scope
-        //
-        Log.wtf(TAG, "processCommandApdu() | Invalid command!");
-        return A_ERROR;
+    /**
+     * Encodes the content of the NDEF file served for the given idTag: the two
+     * byte NLEN field followed by a single NDEF Text record message.
+     */
+    public static byte[] createNdefFile(String text) {
+        return NdefEncoder.encodeTextFile("en", text, NDEF_ID);
     }
 
-    @Override
-    public void onDeactivated(int reason) {
-        Log.i(TAG, "onDeactivated() Fired! Reason: " + reason);
+    /**
+     * @return The size of {@link #createNdefFile(String)}, computed without encoding
+     */
+    static int ndefFileLength(String text) {
+        return NdefEncoder.textFileLength("en", text, NDEF_ID);
     }
 
+    /**
+     * @deprecated Use {@link NdefEncoder}, which encodes the same bytes without the framework
+     */
+    @Deprecated
     public static NdefRecord createTextRecord(String language, String text, byte[] id) {
         byte[] languageBytes;
         byte[] textBytes;
@@ -248,7 +407,16 @@ public class CardService extends HostApduService {
         return new NdefRecord(NdefRecord.TNF_WELL_KNOWN, NdefRecord.RTD_TEXT, id, recordPayload);
     }
 
-    private void showToast(CharSequence text) {
+    private void showToast(final CharSequence text) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    showToast(text);
+                }
+            });
+            return;
+        }
         Context context = this.getApplicationContext();
         int duration = Toast.LENGTH_SHORT;
         Toast toast = Toast.makeText(context, text, duration);
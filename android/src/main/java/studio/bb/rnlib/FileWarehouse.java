@@ -0,0 +1,145 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+/**
+ * Stores the elementary files served by {@link CardService} next to the CC and NDEF files.
+ * <p>
+ * The files are described by a JSON array of the form
+ * <pre>
+ * [
+ *   { "fid": "E105", "sfi": 1, "content": "0102030405" },
+ *   { "fid": "E106", "sfi": 2, "records": ["01A0", "02B0C0"] }
+ * ]
+ * </pre>
+ * The document is validated and turned into a {@link FileSystem} before it is
+ * persisted, and the built table is cached so the service never parses it in the
+ * tap window. A service in its own process rebuilds it once the files changed,
+ * see {@link SharedConfig}.
+ */
+public class FileWarehouse {
+
+    private static final String TAG = "FileWarehouse";
+    private static final String PREF_FILES = "FILES";
+
+    private static final Object sLock = new Object();
+    private static FileSystem sFileSystem = null;
+    // SharedConfig version sFileSystem was loaded at
+    private static long sFileSystemVersion = 0;
+
+    /**
+     * Replaces all elementary files, an empty array removes them
+     *
+     * @return The number of files
+     */
+    public static int setFiles(Context c, String json) throws IOException {
+        FileSystem fileSystem = parse(json);
+        synchronized (sLock) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+            if (!prefs.edit().putString(PREF_FILES, json).commit()) {
+                throw new IOException("Could not persist files");
+            }
+            sFileSystem = fileSystem;
+            sFileSystemVersion = SharedConfig.publish(c, SharedConfig.FILES);
+        }
+        Log.i(TAG, "Set " + fileSystem.size() + " files");
+        return fileSystem.size();
+    }
+
+    public static FileSystem getFileSystem(Context c) {
+        synchronized (sLock) {
+            long version = SharedConfig.getVersion(c, SharedConfig.FILES);
+            if (sFileSystem == null || version != sFileSystemVersion) {
+                String json = SharedConfig.getPreferences(c).getString(PREF_FILES, null);
+                sFileSystemVersion = version;
+                sFileSystem = FileSystem.EMPTY;
+                if (json != null) {
+                    try {
+                        sFileSystem = parse(json);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Ignoring invalid stored files", e);
+                    }
+                }
+            }
+            return sFileSystem;
+        }
+    }
+
+    private static FileSystem parse(String json) throws IOException {
+        FileSystem.Builder builder = new FileSystem.Builder();
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readFile(reader, builder);
+            }
+            reader.endArray();
+        } catch (IllegalStateException e) {
+            // JsonReader reports structural mismatches as IllegalStateException
+            throw new IllegalArgumentException("Malformed file document: " + e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+        return builder.build();
+    }
+
+    private static void readFile(JsonReader reader, FileSystem.Builder builder) throws IOException {
+        String fid = null;
+        int sfi = 0;
+        String content = null;
+        List<byte[]> records = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("fid")) {
+                fid = reader.nextString();
+            } else if (name.equals("sfi")) {
+                sfi = reader.peek() == JsonToken.NULL ? skipNull(reader) : reader.nextInt();
+            } else if (name.equals("content")) {
+                content = reader.nextString();
+            } else if (name.equals("records")) {
+                records = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    records.add(ByteUtils.hexToBytes(reader.nextString()));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (fid == null || fid.length() != 4) {
+            throw new IllegalArgumentException("Invalid file identifier " + fid);
+        }
+        int id = ByteUtils.readU16(ByteUtils.hexToBytes(fid), 0);
+        if ((content == null) == (records == null)) {
+            throw new IllegalArgumentException("File " + fid + " needs either content or records");
+        }
+        if (content != null) {
+            builder.addTransparent(id, sfi, ByteUtils.hexToBytes(content));
+        } else {
+            builder.addRecords(id, sfi, records);
+        }
+    }
+
+    private static int skipNull(JsonReader reader) throws IOException {
+        reader.nextNull();
+        return 0;
+    }
+
+}
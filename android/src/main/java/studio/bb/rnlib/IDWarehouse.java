@@ -3,8 +3,20 @@ package studio.bb.rnlib;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
+import java.io.File;
+
+/**
+ * Card content, cached in memory and persisted in SharedPreferences.
+ * <p>
+ * Every change is also published to a {@link CardStateStore} so a
+ * {@link CardService} running in its own process picks it up on the next tap;
+ * reads check the store version first and adopt a newer state.
+ */
 public class IDWarehouse {
 
     private static final String PREF_ID = "ID";
@@ -12,6 +24,14 @@ public class IDWarehouse {
     private static final String TAG = "IDWarehouse";
     private static String sID = null;
     private static final Object sIDLock = new Object();
+    // Bumped on every content change so readers can tell whether their encoded card is stale
+    private static long sVersion = 0;
+
+    private static final String STORE_FILE = "rnhce-card-state";
+    private static CardStateStore sStore = null;
+    private static boolean sStoreFailed = false;
+    // Version of the shared card state last adopted or published by this process
+    private static long sStoreVersion = 0;
 
     public static void setID(Context c, String s) {
         synchronized (sIDLock) {
@@ -19,22 +39,159 @@ public class IDWarehouse {
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
             prefs.edit().putString(PREF_ID, s).commit();
             sID = s;
+            sVersion++;
+            publish(c);
+        }
+    }
+
+    /**
+     * Updates the card content and toasts with a single commit. Null arguments are left unchanged.
+     */
+    public static void setCardState(Context c, String s, String successToast, String errorToast) {
+        synchronized (sIDLock) {
+            Log.i(TAG, "Setting card state: " + s);
+            SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(c).edit();
+            if (s != null) {
+                putID(editor, s);
+            }
+            if (successToast != null) {
+                ToastWarehouse.putSuccessToast(editor, successToast);
+            }
+            if (errorToast != null) {
+                ToastWarehouse.putErrorToast(editor, errorToast);
+            }
+            editor.commit();
+            ToastWarehouse.cacheToasts(successToast, errorToast);
+            if (s != null) {
+                sID = s;
+                sVersion++;
+            }
+            publish(c);
         }
     }
 
     public static String getID(Context c) {
         synchronized (sIDLock) {
-            if (sID == null) {
-                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
-                String ID = prefs.getString(PREF_ID, DEFAULT_ID);
-                sID = ID;
+            sync(c);
+            return loadID(c);
+        }
+    }
+
+    private static String loadID(Context c) {
+        if (sID == null) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+            sID = prefs.getString(PREF_ID, DEFAULT_ID);
+        }
+        return sID;
+    }
+
+    private static void putID(SharedPreferences.Editor editor, String s) {
+        editor.putString(PREF_ID, s);
+    }
+
+    /**
+     * Publishes the current content and toasts to the shared card state.
+     * <p>
+     * Never syncs first: in a process that has not adopted the stored state yet,
+     * that state would replace the change being published.
+     */
+    static void publish(Context c) {
+        synchronized (sIDLock) {
+            CardStateStore store = openStore(c);
+            if (store == null) {
+                return;
+            }
+            String id = loadID(c);
+            try {
+                sStoreVersion = store.write(id == DEFAULT_ID ? null : id,
+                        ToastWarehouse.loadSuccessToast(c), ToastWarehouse.loadErrorToast(c));
+            } catch (Exception e) {
+                Log.e(TAG, "Could not publish card state", e);
+            }
+        }
+    }
+
+    /**
+     * Adopts the shared card state if another process published a newer one
+     */
+    static void sync(Context c) {
+        synchronized (sIDLock) {
+            CardStateStore store = openStore(c);
+            if (store == null || store.getVersion() == sStoreVersion) {
+                return;
+            }
+            CardStateStore.State state = store.read();
+            if (state == null) {
+                return;
+            }
+            sStoreVersion = state.version;
+            String id = state.idTag != null ? state.idTag : DEFAULT_ID;
+            if (sID == null || !TextUtils.equals(id, sID)) {
+                sID = id;
+                sVersion++;
             }
-            return sID;
+            ToastWarehouse.cacheToasts(state.successToast, state.errorToast);
+        }
+    }
+
+    static CardStateStore getStore(Context c) {
+        synchronized (sIDLock) {
+            return openStore(c);
+        }
+    }
+
+    private static CardStateStore openStore(Context c) {
+        if (sStore == null && !sStoreFailed) {
+            try {
+                sStore = new CardStateStore(new File(c.getApplicationContext().getFilesDir(), STORE_FILE));
+            } catch (Exception e) {
+                Log.e(TAG, "Shared card state unavailable, using preferences only", e);
+                sStoreFailed = true;
+            }
+        }
+        return sStore;
+    }
+
+    /**
+     * Forgets everything cached in memory, as if the process had just started
+     */
+    @VisibleForTesting
+    static void reset() {
+        synchronized (sIDLock) {
+            if (sStore != null) {
+                try {
+                    sStore.close();
+                } catch (Exception e) {
+                    Log.w(TAG, "Could not close the shared card state", e);
+                }
+            }
+            sStore = null;
+            sStoreFailed = false;
+            sStoreVersion = 0;
+            sID = null;
+            ToastWarehouse.reset();
+        }
+    }
+
+    /**
+     * @return The version of the shared card state this process serves, kept across
+     * processes and restarts, 0 when the shared card state is unavailable
+     */
+    public static long getStateVersion(Context c) {
+        synchronized (sIDLock) {
+            sync(c);
+            return sStoreVersion;
+        }
+    }
+
+    public static long getVersion() {
+        synchronized (sIDLock) {
+            return sVersion;
         }
     }
 
     public static boolean isEmptyID(Context c) {
-        return sID == DEFAULT_ID;
+        return getID(c) == DEFAULT_ID;
     }
     
 }
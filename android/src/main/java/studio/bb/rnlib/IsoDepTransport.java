@@ -0,0 +1,46 @@
+package studio.bb.rnlib;
+
+import android.nfc.tech.IsoDep;
+
+import java.io.IOException;
+
+/**
+ * Sends APDUs to an ISO 14443-4 tag in the field
+ */
+public class IsoDepTransport implements ApduTransport {
+
+    private final IsoDep isoDep;
+
+    /**
+     * Connects to the tag
+     *
+     * @param timeoutMs Time to wait for each response, 0 keeps the platform default
+     */
+    public IsoDepTransport(IsoDep isoDep, int timeoutMs) throws IOException {
+        this.isoDep = isoDep;
+        if (!isoDep.isConnected()) {
+            isoDep.connect();
+        }
+        if (timeoutMs > 0) {
+            isoDep.setTimeout(timeoutMs);
+        }
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        return isoDep.transceive(command);
+    }
+
+    public boolean isConnected() {
+        return isoDep.isConnected();
+    }
+
+    public void close() {
+        try {
+            isoDep.close();
+        } catch (IOException e) {
+            // The tag already left the field
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.nfc.NfcAdapter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds everything that decides whether a tap can reach CardService into a single
+ * {@link State}: the adapter state including its transitions, HCE support,
+ * whether CardService is the default service for its AIDs and the AIDs it has
+ * registered.
+ * <p>
+ * Changes are reported through {@link #onAdapterStateChanged(int)} and
+ * {@link #refresh()} and debounced for {@link #DEBOUNCE_MS}. The state is read on
+ * the {@link AidRegistrar} thread, since reading the AID routing asks the NFC
+ * service, and only delivered on the main thread while started and when it
+ * differs from the last one delivered or handed out by {@link #snapshot()}.
+ */
+public class NfcStateMonitor {
+
+    private static final String TAG = "NfcStateMonitor";
+    private static final long DEBOUNCE_MS = 100;
+    // How long snapshot() waits for the first read
+    private static final long FIRST_READ_WAIT_MS = 200;
+
+    public static final String ADAPTER_UNSUPPORTED = "unsupported";
+    public static final String ADAPTER_OFF = "off";
+    public static final String ADAPTER_TURNING_ON = "turningOn";
+    public static final String ADAPTER_ON = "on";
+    public static final String ADAPTER_TURNING_OFF = "turningOff";
+
+    public interface Listener {
+        void onStateChanged(State state);
+    }
+
+    public static class State {
+        public final String adapterState;
+        public final boolean hceSupported;
+        // Null when it cannot be told, e.g. without registered AIDs
+        public final Boolean defaultService;
+        public final List<String> registeredAids;
+
+        State(String adapterState, boolean hceSupported, Boolean defaultService, List<String> registeredAids) {
+            this.adapterState = adapterState;
+            this.hceSupported = hceSupported;
+            this.defaultService = defaultService;
+            this.registeredAids = Collections.unmodifiableList(registeredAids);
+        }
+
+        public boolean isSupported() {
+            return !ADAPTER_UNSUPPORTED.equals(adapterState);
+        }
+
+        public boolean isEnabled() {
+            return ADAPTER_ON.equals(adapterState);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State)) {
+                return false;
+            }
+            State other = (State) o;
+            return adapterState.equals(other.adapterState) && hceSupported == other.hceSupported
+                    && (defaultService == null ? other.defaultService == null : defaultService.equals(other.defaultService))
+                    && registeredAids.equals(other.registeredAids);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = adapterState.hashCode();
+            result = 31 * result + (hceSupported ? 1 : 0);
+            result = 31 * result + (defaultService != null ? defaultService.hashCode() : 0);
+            return 31 * result + registeredAids.hashCode();
+        }
+    }
+
+    private final Context context;
+    private final AidRegistrar aidRegistrar;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Reads the state, off the main and JS threads
+    private final Handler readHandler;
+
+    private boolean started = false;
+    // Last NfcAdapter.STATE_* broadcast, 0 until the first one
+    private int adapterState = 0;
+    private State lastState = null;
+    // Last state read, null until the first read
+    private State currentState = null;
+
+    public NfcStateMonitor(Context context, AidRegistrar aidRegistrar, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.aidRegistrar = aidRegistrar;
+        this.listener = listener;
+        this.readHandler = aidRegistrar.getHandler();
+        readHandler.post(update);
+    }
+
+    /**
+     * Starts delivering changes, the current state is delivered if it differs from the last snapshot
+     */
+    public synchronized void start() {
+        started = true;
+        schedule();
+    }
+
+    public synchronized void stop() {
+        started = false;
+    }
+
+    /**
+     * Hands out the last state read and marks it as known to the caller, without
+     * asking the NFC service. A newer state is read right after and delivered once
+     * started if it differs.
+     * <p>
+     * Only waits, for {@link #FIRST_READ_WAIT_MS} at most, while the first read
+     * since construction is running. Past that the state is told from the adapter
+     * broadcasts and the AIDs registered from this process alone.
+     */
+    public synchronized State snapshot() {
+        long deadline = SystemClock.uptimeMillis() + FIRST_READ_WAIT_MS;
+        long remaining = FIRST_READ_WAIT_MS;
+        while (currentState == null && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - SystemClock.uptimeMillis();
+        }
+        State state = currentState;
+        if (state == null) {
+            state = new State(adapterState == NfcAdapter.STATE_TURNING_ON ? ADAPTER_TURNING_ON
+                    : adapterState == NfcAdapter.STATE_TURNING_OFF ? ADAPTER_TURNING_OFF
+                    : adapterState == NfcAdapter.STATE_ON ? ADAPTER_ON : ADAPTER_OFF,
+                    false, null, aidRegistrar.getRegisteredAids());
+        }
+        lastState = state;
+        schedule();
+        return state;
+    }
+
+    public synchronized void onAdapterStateChanged(int state) {
+        adapterState = state;
+        schedule();
+    }
+
+    /**
+     * Reads the state again, for changes nothing is broadcast about such as the
+     * default service picked in the system settings
+     */
+    public synchronized void refresh() {
+        schedule();
+    }
+
+    private void schedule() {
+        readHandler.removeCallbacks(update);
+        readHandler.postDelayed(update, DEBOUNCE_MS);
+    }
+
+    private final Runnable update = new Runnable() {
+        @Override
+        public void run() {
+            final State state = read();
+            synchronized (NfcStateMonitor.this) {
+                currentState = state;
+                NfcStateMonitor.this.notifyAll();
+                if (!started || state.equals(lastState)) {
+                    return;
+                }
+                lastState = state;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (NfcStateMonitor.this) {
+                        // Stopped, or a snapshot handed out a newer state since
+                        if (!started || lastState != state) {
+                            return;
+                        }
+                    }
+                    listener.onStateChanged(state);
+                }
+            });
+        }
+    };
+
+    /**
+     * Never throws, a state is read even when the NFC service refuses to answer,
+     * so snapshot() does not keep waiting for the first one
+     */
+    private State read() {
+        // Checked before any handle is resolved, card emulation is refused without it
+        boolean hceFeature = context.getPackageManager()
+                .hasSystemFeature(PackageManager.FEATURE_NFC_HOST_CARD_EMULATION);
+        int broadcastState;
+        synchronized (this) {
+            broadcastState = adapterState;
+        }
+
+        NfcAdapter adapter = null;
+        String state;
+        try {
+            adapter = aidRegistrar.getAdapter();
+            if (adapter == null) {
+                state = ADAPTER_UNSUPPORTED;
+            } else if (broadcastState == NfcAdapter.STATE_TURNING_ON) {
+                state = ADAPTER_TURNING_ON;
+            } else if (broadcastState == NfcAdapter.STATE_TURNING_OFF) {
+                state = ADAPTER_TURNING_OFF;
+            } else {
+                state = adapter.isEnabled() ? ADAPTER_ON : ADAPTER_OFF;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read the adapter state", e);
+            state = adapter == null ? ADAPTER_UNSUPPORTED : ADAPTER_OFF;
+        }
+
+        boolean hceSupported = hceFeature && adapter != null;
+        Boolean defaultService = null;
+        List<String> aids = aidRegistrar.getRegisteredAids();
+        if (hceSupported) {
+            try {
+                Map<String, Boolean> routing = aidRegistrar.isDefaultServiceForAids(Collections.<String>emptyList());
+                aids = new ArrayList<>(routing.keySet());
+                if (!routing.isEmpty()) {
+                    defaultService = !routing.containsValue(false);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Could not read the AID routing", e);
+            }
+        }
+        return new State(state, hceSupported, defaultService, aids);
+    }
+
+}
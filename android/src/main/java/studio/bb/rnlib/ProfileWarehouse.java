@@ -0,0 +1,373 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores card profiles provisioned in bulk through {@link #importProfiles(Context, Reader)}.
+ * <p>
+ * The import document is read with a streaming {@link JsonReader} and has the form
+ * <pre>
+ * {
+ *   "activeProfile": "p1",
+ *   "aidSets": { "main": ["F201808175"] },
+ *   "profiles": [
+ *     { "id": "p1", "content": "idTag", "aidSet": "main" },
+ *     { "id": "p2", "content": "idTag2", "aids": ["F201808176"] }
+ *   ]
+ * }
+ * </pre>
+ * Every profile is validated, its NDEF file size included, before anything is
+ * persisted, and the whole document is then applied with a single commit to the
+ * profiles' own preferences file, so a failed import leaves the previous state
+ * untouched. The card content of the active profile follows through
+ * {@link IDWarehouse} in a second write; the profiles commit marks the switch as
+ * pending until then, so {@link #recover(Context)} finishes it when the process
+ * died in between.
+ * <p>
+ * Only the NDEF file of the active profile is kept, encoded once on activation.
+ * A {@link CardService} in its own process encodes it once per content change.
+ */
+public class ProfileWarehouse {
+
+    private static final String TAG = "ProfileWarehouse";
+    private static final String PREFS_FILE = "rnhce-profiles";
+    private static final String PREF_PROFILES = "PROFILES";
+    private static final String PREF_PROFILE_CONTENT = "PROFILE_CONTENT_";
+    private static final String PREF_PROFILE_AIDS = "PROFILE_AIDS_";
+    private static final String PREF_ACTIVE_PROFILE = "ACTIVE_PROFILE";
+    // Set with the active profile until its content reached IDWarehouse
+    private static final String PREF_CONTENT_PENDING = "CONTENT_PENDING";
+    private static final String AID_SEPARATOR = ",";
+
+    // Maximum NDEF file size announced in the capability container
+    private static final int MAX_NDEF_FILE_SIZE = 0xFFFE;
+
+    private static final Object sLock = new Object();
+    // Pre-encoded NDEF file of the active profile, served by CardService without re-encoding
+    private static String sNdefContent = null;
+    private static byte[] sNdefFile = null;
+
+    public static class Profile {
+        public final String id;
+        public final String content;
+        public final List<String> aids;
+
+        Profile(String id, String content, List<String> aids) {
+            this.id = id;
+            this.content = content;
+            this.aids = aids;
+        }
+    }
+
+    public static class ImportResult {
+        public final int profileCount;
+        public final int aidSetCount;
+        @Nullable
+        public final Profile activeProfile;
+
+        ImportResult(int profileCount, int aidSetCount, Profile activeProfile) {
+            this.profileCount = profileCount;
+            this.aidSetCount = aidSetCount;
+            this.activeProfile = activeProfile;
+        }
+    }
+
+    public static ImportResult importProfiles(Context c, Reader source) throws IOException {
+        Map<String, List<String>> aidSets = new HashMap<>();
+        Map<String, String[]> pending = new LinkedHashMap<>(); // id -> content, aidSet name
+        Map<String, List<String>> inlineAids = new HashMap<>();
+        String activeId = null;
+
+        JsonReader reader = new JsonReader(source);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("activeProfile")) {
+                    activeId = nextStringOrNull(reader);
+                } else if (name.equals("aidSets")) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String setName = reader.nextName();
+                        aidSets.put(setName, readAids(reader, "aid set " + setName));
+                    }
+                    reader.endObject();
+                } else if (name.equals("profiles")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readProfile(reader, pending, inlineAids);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader reports structural mismatches as IllegalStateException
+            throw new IllegalArgumentException("Malformed profile document: " + e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+
+        List<Profile> profiles = new ArrayList<>(pending.size());
+        Set<String> validated = new HashSet<>();
+        Profile activeProfile = null;
+        for (Map.Entry<String, String[]> entry : pending.entrySet()) {
+            String id = entry.getKey();
+            String aidSet = entry.getValue()[1];
+            List<String> aids = inlineAids.get(id);
+            if (aids == null && aidSet != null) {
+                aids = aidSets.get(aidSet);
+                if (aids == null) {
+                    throw new IllegalArgumentException("Profile " + id + " references unknown aid set " + aidSet);
+                }
+            }
+            Profile profile = new Profile(id, entry.getValue()[0],
+                    aids != null ? aids : Collections.<String>emptyList());
+            profiles.add(profile);
+            if (validated.add(profile.content) && CardService.ndefFileLength(profile.content) > MAX_NDEF_FILE_SIZE) {
+                throw new IllegalArgumentException("Profile " + profile.id + " content exceeds the maximum NDEF file size");
+            }
+            if (profile.id.equals(activeId)) {
+                activeProfile = profile;
+            }
+        }
+        if (activeId != null && activeProfile == null) {
+            throw new IllegalArgumentException("Active profile " + activeId + " is not part of the document");
+        }
+        byte[] activeNdefFile = activeProfile != null ? CardService.createNdefFile(activeProfile.content) : null;
+
+        synchronized (sLock) {
+            SharedPreferences prefs = getPreferences(c);
+            SharedPreferences.Editor editor = prefs.edit().clear();
+            Set<String> ids = new HashSet<>();
+            for (Profile profile : profiles) {
+                ids.add(profile.id);
+                editor.putString(PREF_PROFILE_CONTENT + profile.id, profile.content);
+                editor.putString(PREF_PROFILE_AIDS + profile.id, joinAids(profile.aids));
+            }
+            editor.putStringSet(PREF_PROFILES, ids);
+            if (activeProfile != null) {
+                editor.putString(PREF_ACTIVE_PROFILE, activeProfile.id);
+                editor.putBoolean(PREF_CONTENT_PENDING, true);
+            }
+            if (!editor.commit()) {
+                throw new IOException("Could not persist imported profiles");
+            }
+            if (activeProfile != null) {
+                sNdefContent = activeProfile.content;
+                sNdefFile = activeNdefFile;
+                applyContent(c, prefs, activeProfile.content);
+            }
+        }
+
+        Log.i(TAG, "Imported " + profiles.size() + " profiles and " + aidSets.size() + " aid sets");
+        return new ImportResult(profiles.size(), aidSets.size(), activeProfile);
+    }
+
+    public static Profile activateProfile(Context c, String id) throws IOException {
+        synchronized (sLock) {
+            SharedPreferences prefs = getPreferences(c);
+            String content = prefs.getString(PREF_PROFILE_CONTENT + id, null);
+            if (content == null) {
+                throw new IllegalArgumentException("Unknown profile " + id);
+            }
+            String aids = prefs.getString(PREF_PROFILE_AIDS + id, "");
+            if (!prefs.edit().putString(PREF_ACTIVE_PROFILE, id).putBoolean(PREF_CONTENT_PENDING, true).commit()) {
+                throw new IOException("Could not persist active profile");
+            }
+            if (!content.equals(sNdefContent)) {
+                sNdefFile = CardService.createNdefFile(content);
+                sNdefContent = content;
+            }
+            applyContent(c, prefs, content);
+            Log.i(TAG, "Activated profile " + id);
+            return new Profile(id, content, splitAids(aids));
+        }
+    }
+
+    /**
+     * Finishes switching the card content to the active profile when the process
+     * died after the profiles were committed, call once at startup
+     */
+    public static void recover(Context c) {
+        synchronized (sLock) {
+            SharedPreferences prefs = getPreferences(c);
+            if (!prefs.getBoolean(PREF_CONTENT_PENDING, false)) {
+                return;
+            }
+            String id = prefs.getString(PREF_ACTIVE_PROFILE, null);
+            String content = id != null ? prefs.getString(PREF_PROFILE_CONTENT + id, null) : null;
+            if (content != null) {
+                Log.i(TAG, "Finishing the activation of profile " + id);
+                IDWarehouse.setID(c, content);
+            }
+            prefs.edit().remove(PREF_CONTENT_PENDING).commit();
+        }
+    }
+
+    private static void applyContent(Context c, SharedPreferences prefs, String content) {
+        IDWarehouse.setID(c, content);
+        prefs.edit().remove(PREF_CONTENT_PENDING).commit();
+    }
+
+    public static String getActiveProfileId(Context c) {
+        return getPreferences(c).getString(PREF_ACTIVE_PROFILE, null);
+    }
+
+    /**
+     * Returns the NDEF file encoded when the profile with this content was
+     * activated, or null if it was not activated in this process.
+     */
+    public static byte[] getNdefFile(String content) {
+        synchronized (sLock) {
+            return content != null && content.equals(sNdefContent) ? sNdefFile : null;
+        }
+    }
+
+    private static SharedPreferences getPreferences(Context c) {
+        SharedPreferences prefs = c.getSharedPreferences(PREFS_FILE, Context.MODE_PRIVATE);
+        if (!prefs.contains(PREF_PROFILES)) {
+            migrate(c, prefs);
+        }
+        return prefs;
+    }
+
+    // Moves the profiles out of the default preferences, where they were kept before
+    private static void migrate(Context c, SharedPreferences prefs) {
+        SharedPreferences defaults = PreferenceManager.getDefaultSharedPreferences(c);
+        Set<String> ids = defaults.getStringSet(PREF_PROFILES, null);
+        if (ids == null) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        SharedPreferences.Editor cleanup = defaults.edit();
+        for (String id : ids) {
+            editor.putString(PREF_PROFILE_CONTENT + id, defaults.getString(PREF_PROFILE_CONTENT + id, ""));
+            editor.putString(PREF_PROFILE_AIDS + id, defaults.getString(PREF_PROFILE_AIDS + id, ""));
+            cleanup.remove(PREF_PROFILE_CONTENT + id).remove(PREF_PROFILE_AIDS + id);
+        }
+        editor.putStringSet(PREF_PROFILES, new HashSet<>(ids));
+        String activeId = defaults.getString(PREF_ACTIVE_PROFILE, null);
+        if (activeId != null) {
+            editor.putString(PREF_ACTIVE_PROFILE, activeId);
+        }
+        if (editor.commit()) {
+            cleanup.remove(PREF_PROFILES).remove(PREF_ACTIVE_PROFILE).commit();
+            Log.i(TAG, "Moved " + ids.size() + " profiles out of the default preferences");
+        }
+    }
+
+    public static boolean isValidAid(String aid) {
+        // ISO 7816-4 AIDs are 5 to 16 bytes long
+        int length = aid.length();
+        if (length < 10 || length > 32 || (length & 1) != 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.digit(aid.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readProfile(JsonReader reader, Map<String, String[]> pending,
+                                    Map<String, List<String>> inlineAids) throws IOException {
+        String id = null;
+        String content = null;
+        String aidSet = null;
+        List<String> aids = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id")) {
+                id = nextStringOrNull(reader);
+            } else if (name.equals("content")) {
+                content = nextStringOrNull(reader);
+            } else if (name.equals("aidSet")) {
+                aidSet = nextStringOrNull(reader);
+            } else if (name.equals("aids")) {
+                aids = readAids(reader, "profile " + id);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Profile #" + pending.size() + " has no id");
+        }
+        if (content == null || content.isEmpty()) {
+            throw new IllegalArgumentException("Profile " + id + " has no content");
+        }
+        if (pending.put(id, new String[]{content, aidSet}) != null) {
+            throw new IllegalArgumentException("Duplicate profile id " + id);
+        }
+        if (aids != null) {
+            inlineAids.put(id, aids);
+        }
+    }
+
+    private static List<String> readAids(JsonReader reader, String owner) throws IOException {
+        List<String> aids = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String aid = nextStringOrNull(reader);
+            if (aid == null || !isValidAid(aid)) {
+                throw new IllegalArgumentException("Invalid AID " + aid + " in " + owner);
+            }
+            aids.add(aid.toUpperCase());
+        }
+        reader.endArray();
+        return aids;
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static String joinAids(List<String> aids) {
+        StringBuilder builder = new StringBuilder();
+        for (String aid : aids) {
+            if (builder.length() > 0) {
+                builder.append(AID_SEPARATOR);
+            }
+            builder.append(aid);
+        }
+        return builder.toString();
+    }
+
+    private static List<String> splitAids(String aids) {
+        if (aids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, aids.split(AID_SEPARATOR));
+        return list;
+    }
+
+}
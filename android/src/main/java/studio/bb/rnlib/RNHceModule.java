@@ -1,13 +1,12 @@
 package studio.bb.rnlib;
 
+import android.app.Activity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.ComponentName;
 import android.nfc.NfcAdapter;
-import android.nfc.NfcManager;
-import android.nfc.cardemulation.CardEmulation;
+import android.nfc.Tag;
 import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.Arguments;
@@ -22,23 +21,56 @@ import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import studio.bb.rnlib.utils.ArrayUtils;
+import studio.bb.rnlib.utils.ByteUtils;
 
 public class RNHceModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
 
     private final ReactApplicationContext reactContext;
+    private final AidRegistrar aidRegistrar;
+    // Opt-in: route our AIDs to CardService while the app is in the foreground
+    private volatile boolean preferredServiceEnabled = false;
+    private boolean hostResumed = false;
+    // Created on the first enableReaderMode, null when the device has no NFC
+    private volatile ReaderMode readerMode = null;
+    private final NfcStateMonitor nfcStateMonitor;
 
     public RNHceModule(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
+        this.aidRegistrar = new AidRegistrar(reactContext);
+        // Left to the app process, the only one writing the configuration, see SharedConfig
+        SecretWarehouse.moveLegacySecret(reactContext, TokenPool.PREF_SECRET, TokenPool.PREF_SECRET);
+        SecretWarehouse.moveLegacySecret(reactContext, Authenticator.PREF_KEY, Authenticator.PREF_KEY);
+        ProfileWarehouse.recover(reactContext);
+        this.nfcStateMonitor = new NfcStateMonitor(reactContext, aidRegistrar, new NfcStateMonitor.Listener() {
+            @Override
+            public void onStateChanged(NfcStateMonitor.State state) {
+                sendEvent(RNHceModule.this.reactContext, "nfcStateChanged", writeNfcState(state));
+            }
+        });
+        this.aidRegistrar.setChangeCallback(new Runnable() {
+            @Override
+            public void run() {
+                nfcStateMonitor.refresh();
+            }
+        });
         reactContext.addLifecycleEventListener(this);
         IntentFilter filter = new IntentFilter(NfcAdapter.ACTION_ADAPTER_STATE_CHANGED);
         this.reactContext.registerReceiver(mReceiver, filter);
@@ -50,8 +82,7 @@ public class RNHceModule extends ReactContextBaseJavaModule implements Lifecycle
     }
 
     private WritableMap supportNFC() {
-        NfcManager manager = (NfcManager) this.reactContext.getSystemService(this.reactContext.NFC_SERVICE);
-        NfcAdapter adapter = manager.getDefaultAdapter();
+        NfcAdapter adapter = aidRegistrar.getAdapter();
         WritableMap map = Arguments.createMap();
         if (adapter != null) {
             map.putBoolean("support", true);
@@ -79,6 +110,85 @@ public class RNHceModule extends ReactContextBaseJavaModule implements Lifecycle
         IDWarehouse.setID(this.reactContext, content);
     }
 
+    @ReactMethod
+    public void setCardState(@Nullable String content, @Nullable String successToast, @Nullable String errorToast) {
+        IDWarehouse.setCardState(this.reactContext, content, successToast, errorToast);
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getNFCState() {
+        return supportNFC();
+    }
+
+    /**
+     * The last NFC state read, followed by nfcStateChanged events between
+     * startNfcStateUpdates and stopNfcStateUpdates. Does not call the NFC
+     * service from the JS thread.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getNfcStateSnapshot() {
+        return writeNfcState(nfcStateMonitor.snapshot());
+    }
+
+    @ReactMethod
+    public void startNfcStateUpdates() {
+        nfcStateMonitor.start();
+    }
+
+    @ReactMethod
+    public void stopNfcStateUpdates() {
+        nfcStateMonitor.stop();
+    }
+
+    private static WritableMap writeNfcState(NfcStateMonitor.State state) {
+        WritableMap map = Arguments.createMap();
+        map.putBoolean("supported", state.isSupported());
+        map.putBoolean("enabled", state.isEnabled());
+        map.putString("adapterState", state.adapterState);
+        map.putBoolean("hceSupported", state.hceSupported);
+        if (state.defaultService != null) {
+            map.putBoolean("defaultService", state.defaultService);
+        } else {
+            map.putNull("defaultService");
+        }
+        WritableArray aids = Arguments.createArray();
+        for (String aid : state.registeredAids) {
+            aids.pushString(aid);
+        }
+        map.putArray("registeredAids", aids);
+        return map;
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getCardState() {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("version", IDWarehouse.getVersion());
+        map.putBoolean("ready", !IDWarehouse.isEmptyID(this.reactContext));
+        map.putString("activeProfile", ProfileWarehouse.getActiveProfileId(this.reactContext));
+        return map;
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getMetrics() {
+        CardMetrics.Snapshot metrics = CardMetrics.snapshot(this.reactContext);
+        WritableMap map = Arguments.createMap();
+        map.putDouble("apdus", metrics.apduCount);
+        map.putDouble("errors", metrics.errorCount);
+        map.putDouble("taps", metrics.tapCount);
+        map.putDouble("lastTapTime", metrics.lastTapTime);
+        map.putDouble("lastProcessingMicros", metrics.lastProcessingNanos / 1000.0);
+        map.putDouble("maxProcessingMicros", metrics.maxProcessingNanos / 1000.0);
+        map.putDouble("throttledApdus", metrics.throttledApduCount);
+        map.putDouble("throttledSessions", metrics.throttledSessionCount);
+        map.putDouble("firstTapProcessingMicros", metrics.firstTapProcessingNanos / 1000.0);
+        return map;
+    }
+
+    @ReactMethod
+    public void resetMetrics() {
+        CardMetrics.reset(this.reactContext);
+    }
+
     @ReactMethod
     public void setSuccessToast(String content) {
         ToastWarehouse.setSuccessToast(this.reactContext, content);
@@ -94,40 +204,366 @@ public class RNHceModule extends ReactContextBaseJavaModule implements Lifecycle
         try {
             Object[] objectArray = ArrayUtils.toArray(aids);
             String[] stringArray = Arrays.copyOf(objectArray, objectArray.length, String[].class);
-            NfcManager manager = (NfcManager) this.reactContext.getSystemService(this.reactContext.NFC_SERVICE);
-            NfcAdapter adapter = manager.getDefaultAdapter();
-            if (adapter != null) {
-                CardEmulation cardEmulation = CardEmulation.getInstance(adapter);
-                ComponentName serviceComponent = new ComponentName(this.reactContext, CardService.class); 
-                List<String> dynamicAIDs = Arrays.asList(stringArray);
-                boolean aidsRegistered = cardEmulation.registerAidsForService(serviceComponent, "other", dynamicAIDs);
-                promise.resolve(aidsRegistered);
-            } else {
-                throw new IllegalStateException("No NFC adapted found");
+            aidRegistrar.register(Arrays.asList(stringArray), AidRegistrar.forPromise(promise));
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void setAsyncApduProcessing(boolean enabled) {
+        SettingsWarehouse.setAsyncApdu(this.reactContext, enabled);
+    }
+
+    @ReactMethod
+    public void setTracingEnabled(boolean enabled) {
+        SettingsWarehouse.setTracing(this.reactContext, enabled);
+        CardService.setTracer(enabled ? new SystemTracer() : Tracer.NONE);
+    }
+
+    @ReactMethod
+    public void setWorkBudget(ReadableMap options, Promise promise) {
+        try {
+            WorkBudget.Config config = null;
+            if (options != null) {
+                // Opting in, the limits left out follow the recommended ones
+                WorkBudget.Config defaults = WorkBudget.RECOMMENDED;
+                config = new WorkBudget.Config(
+                        options.hasKey("maxSessionApdus") ? options.getInt("maxSessionApdus") : defaults.maxSessionApdus,
+                        options.hasKey("maxSessionBytes") ? options.getInt("maxSessionBytes") : defaults.maxSessionBytes,
+                        options.hasKey("maxSessionInvalid") ? options.getInt("maxSessionInvalid") : defaults.maxSessionInvalid,
+                        options.hasKey("windowSeconds") ? (long) (options.getDouble("windowSeconds") * 1000) : defaults.windowMs,
+                        options.hasKey("maxWindowApdus") ? options.getInt("maxWindowApdus") : defaults.maxWindowApdus,
+                        options.hasKey("maxWindowBytes") ? options.getInt("maxWindowBytes") : defaults.maxWindowBytes,
+                        options.hasKey("maxWindowInvalid") ? options.getInt("maxWindowInvalid") : defaults.maxWindowInvalid);
             }
+            SettingsWarehouse.setWorkBudget(this.reactContext, config);
+            promise.resolve(true);
         } catch (Exception e) {
             promise.reject(e);
         }
     }
 
     @ReactMethod
-    public void removeAids(Promise promise) {
+    public void setPreferredServiceEnabled(final boolean enabled) {
+        final Activity activity = getCurrentActivity();
+        if (activity == null) {
+            preferredServiceEnabled = enabled;
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (preferredServiceEnabled == enabled) {
+                    return;
+                }
+                preferredServiceEnabled = enabled;
+                if (!hostResumed) {
+                    return;
+                }
+                if (enabled) {
+                    aidRegistrar.setPreferredService(activity);
+                } else {
+                    aidRegistrar.unsetPreferredService(activity);
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void enableReaderMode(ReadableMap options, Promise promise) {
+        try {
+            final ReaderMode reader = getReaderMode();
+            int flags = ReaderMode.technologyFlags(options.hasKey("technologies")
+                    ? ArrayUtils.parseReadableArrayOfStrings(options.getArray("technologies"))
+                    : Arrays.asList("A", "B"));
+            if (!options.hasKey("skipNdefCheck") || options.getBoolean("skipNdefCheck")) {
+                flags |= NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK;
+            }
+            if (options.hasKey("noPlatformSounds") && options.getBoolean("noPlatformSounds")) {
+                flags |= NfcAdapter.FLAG_READER_NO_PLATFORM_SOUNDS;
+            }
+            ReaderMode.Options readerOptions = new ReaderMode.Options(flags,
+                    options.hasKey("presenceCheckDelayMs") ? options.getInt("presenceCheckDelayMs") : -1,
+                    options.hasKey("timeoutMs") ? options.getInt("timeoutMs") : 0,
+                    options.hasKey("script") ? readApduScript(options.getArray("script"), options) : null);
+            reader.configure(readerOptions, new ReaderMode.Listener() {
+                @Override
+                public void onTagDiscovered(Tag tag, ApduScript.Result result) {
+                    WritableMap payload = Arguments.createMap();
+                    payload.putString("id", ByteUtils.bytesToHex(tag.getId()));
+                    payload.putArray("techList", Arguments.fromArray(tag.getTechList()));
+                    if (result != null) {
+                        payload.putMap("result", writeApduScriptResult(result));
+                    } else {
+                        payload.putNull("result");
+                    }
+                    sendEvent(reactContext, "readerTagDiscovered", payload);
+                }
+            });
+            final Activity activity = getCurrentActivity();
+            if (activity != null) {
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (hostResumed) {
+                            reader.pause(activity);
+                            reader.resume(activity);
+                        }
+                    }
+                });
+            }
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void disableReaderMode() {
+        final ReaderMode reader = readerMode;
+        final Activity activity = getCurrentActivity();
+        if (reader == null) {
+            return;
+        }
+        if (activity == null) {
+            reader.release();
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                reader.pause(activity);
+                reader.release();
+            }
+        });
+    }
+
+    /**
+     * Sends a batch of APDUs to the tag of the last readerTagDiscovered event. The
+     * exchange runs on the reader's own thread, which settles the promise, so it
+     * holds up neither the UI and JS threads nor the other native modules.
+     */
+    @ReactMethod
+    public void runApduScript(ReadableArray commands, @Nullable ReadableMap options, final Promise promise) {
         try {
-            NfcManager manager = (NfcManager) this.reactContext.getSystemService(this.reactContext.NFC_SERVICE);
-            NfcAdapter adapter = manager.getDefaultAdapter();
-            if (adapter != null) {
-                CardEmulation cardEmulation = CardEmulation.getInstance(adapter);
-                ComponentName serviceComponent = new ComponentName(this.reactContext, CardService.class); 
-                boolean aidsRemoved = cardEmulation.removeAidsForService(serviceComponent, "other");
-                promise.resolve(aidsRemoved);
+            ReaderMode reader = readerMode;
+            if (reader == null) {
+                throw new IllegalStateException("Reader mode is not enabled");
+            }
+            reader.run(readApduScript(commands, options), new ReaderMode.ScriptListener() {
+                @Override
+                public void onResult(ApduScript.Result result) {
+                    promise.resolve(writeApduScriptResult(result));
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    promise.reject(e);
+                }
+            });
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    private synchronized ReaderMode getReaderMode() {
+        if (readerMode == null) {
+            NfcAdapter adapter = aidRegistrar.getAdapter();
+            if (adapter == null) {
+                throw new IllegalStateException("NFC is not supported");
+            }
+            readerMode = new ReaderMode(adapter);
+        }
+        return readerMode;
+    }
+
+    private static ApduScript readApduScript(ReadableArray commands, @Nullable ReadableMap options) {
+        List<byte[]> list = new ArrayList<>(commands.size());
+        for (String command : ArrayUtils.parseReadableArrayOfStrings(commands)) {
+            list.add(ByteUtils.hexToBytes(command));
+        }
+        boolean followResponses = options == null || !options.hasKey("followResponses") || options.getBoolean("followResponses");
+        boolean stopOnError = options == null || !options.hasKey("stopOnError") || options.getBoolean("stopOnError");
+        return new ApduScript(list, followResponses, stopOnError);
+    }
+
+    private static WritableMap writeApduScriptResult(ApduScript.Result result) {
+        WritableMap map = Arguments.createMap();
+        WritableArray responses = Arguments.createArray();
+        for (byte[] response : result.responses) {
+            responses.pushString(ByteUtils.bytesToHex(response));
+        }
+        map.putArray("responses", responses);
+        map.putString("error", result.error);
+        return map;
+    }
+
+    @ReactMethod
+    public void isDefaultService(@Nullable ReadableArray aids, Promise promise) {
+        try {
+            List<String> list = aids != null ? ArrayUtils.parseReadableArrayOfStrings(aids)
+                    : Collections.<String>emptyList();
+            WritableMap map = Arguments.createMap();
+            for (Map.Entry<String, Boolean> entry : aidRegistrar.isDefaultServiceForAids(list).entrySet()) {
+                map.putBoolean(entry.getKey(), entry.getValue());
+            }
+            promise.resolve(map);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void enableRotatingTokens(ReadableMap options, Promise promise) {
+        try {
+            TokenPool.Config config = new TokenPool.Config(
+                    ByteUtils.hexToBytes(options.getString("secret")),
+                    !options.hasKey("mode") || !"counter".equals(options.getString("mode")),
+                    options.hasKey("stepSeconds") ? (long) (options.getDouble("stepSeconds") * 1000) : 30000,
+                    options.hasKey("depth") ? options.getInt("depth") : 16,
+                    options.hasKey("lowWatermark") ? options.getInt("lowWatermark") : 4,
+                    options.hasKey("skewSteps") ? options.getInt("skewSteps") : 1,
+                    options.hasKey("clockOffsetMs") ? (long) options.getDouble("clockOffsetMs") : 0,
+                    options.hasKey("tokenBytes") ? options.getInt("tokenBytes") : 8);
+            TokenPool.get(this.reactContext).configure(config);
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void disableRotatingTokens() {
+        TokenPool.get(this.reactContext).configure(null);
+    }
+
+    @ReactMethod
+    public void setAuthenticationKey(@Nullable String algorithm, @Nullable String key, Promise promise) {
+        try {
+            Authenticator.get(this.reactContext).configure(algorithm,
+                    key != null ? ByteUtils.hexToBytes(key) : null);
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void getTapJournal(double from, double to, int offset, int limit, Promise promise) {
+        try {
+            List<TapJournal.Entry> entries = TapJournal.get(this.reactContext).query((long) from, (long) to, offset, limit);
+            WritableArray array = Arguments.createArray();
+            for (TapJournal.Entry entry : entries) {
+                WritableMap map = Arguments.createMap();
+                map.putDouble("timestamp", entry.timestamp);
+                map.putString("aid", ByteUtils.bytesToHex(entry.aid));
+                map.putDouble("contentVersion", entry.contentVersion);
+                map.putInt("contentHash", entry.contentHash);
+                map.putInt("bytesServed", entry.bytesServed);
+                map.putInt("apdus", entry.apduCount);
+                map.putString("result", entry.result == TapJournal.RESULT_OK ? "ok"
+                        : entry.result == TapJournal.RESULT_ERROR ? "error"
+                        : entry.result == TapJournal.RESULT_THROTTLED ? "throttled" : "incomplete");
+                map.putInt("deactivationReason", entry.deactivationReason);
+                array.pushMap(map);
+            }
+            promise.resolve(array);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void clearTapJournal() {
+        TapJournal.get(this.reactContext).clear();
+    }
+
+    @ReactMethod
+    public void importProfiles(String json, Promise promise) {
+        importProfiles(new StringReader(json), promise);
+    }
+
+    @ReactMethod
+    public void importProfilesFromFile(String path, Promise promise) {
+        try {
+            importProfiles(new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8")), promise);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    private void importProfiles(Reader source, final Promise promise) {
+        try {
+            ProfileWarehouse.ImportResult result = ProfileWarehouse.importProfiles(this.reactContext, source);
+            final WritableMap map = Arguments.createMap();
+            map.putInt("profiles", result.profileCount);
+            map.putInt("aidSets", result.aidSetCount);
+            if (result.activeProfile == null) {
+                map.putNull("activeProfile");
+                map.putBoolean("aidsRegistered", false);
+                promise.resolve(map);
+                return;
+            }
+            map.putString("activeProfile", result.activeProfile.id);
+            final boolean hasAids = !result.activeProfile.aids.isEmpty();
+            // Without AIDs of its own, the profile drops those of the previous one
+            aidRegistrar.register(result.activeProfile.aids, new AidRegistrar.Listener() {
+                @Override
+                public void onResult(boolean registered) {
+                    map.putBoolean("aidsRegistered", hasAids && registered);
+                    promise.resolve(map);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    promise.reject(e);
+                }
+            });
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void activateProfile(String id, final Promise promise) {
+        try {
+            ProfileWarehouse.Profile profile = ProfileWarehouse.activateProfile(this.reactContext, id);
+            if (profile.aids.isEmpty()) {
+                // Drop the AIDs of the previous profile, the ones declared in the manifest apply again
+                aidRegistrar.register(profile.aids, new AidRegistrar.Listener() {
+                    @Override
+                    public void onResult(boolean registered) {
+                        promise.resolve(false);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        promise.reject(e);
+                    }
+                });
             } else {
-                throw new IllegalStateException("No NFC adapted found");
+                aidRegistrar.register(profile.aids, AidRegistrar.forPromise(promise));
             }
         } catch (Exception e) {
             promise.reject(e);
         }
     }
 
+    @ReactMethod
+    public void setFiles(String json, Promise promise) {
+        try {
+            promise.resolve(FileWarehouse.setFiles(this.reactContext, json));
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void removeAids(Promise promise) {
+        aidRegistrar.register(Collections.<String>emptyList(), AidRegistrar.forPromise(promise));
+    }
+
     @Override
     public Map<String, Object> getConstants() {
         final Map<String, Object> constants = new HashMap<>();
@@ -142,38 +578,51 @@ public class RNHceModule extends ReactContextBaseJavaModule implements Lifecycle
             if (action.equals(NfcAdapter.ACTION_ADAPTER_STATE_CHANGED)) {
                 final int state = intent.getIntExtra(NfcAdapter.EXTRA_ADAPTER_STATE,
                         NfcAdapter.STATE_OFF);
-                WritableMap payload = Arguments.createMap();
-                switch (state) {
-                    case NfcAdapter.STATE_OFF:
-                        payload.putBoolean("status", false);
-                        sendEvent(reactContext, "listenNFCStatus", payload);
-                        break;
-                    case NfcAdapter.STATE_TURNING_OFF:
-                        break;
-                    case NfcAdapter.STATE_ON:
-                        payload.putBoolean("status", true);
-                        sendEvent(reactContext, "listenNFCStatus", payload);
-                        break;
-                    case NfcAdapter.STATE_TURNING_ON:
-                        break;
-                }
+                aidRegistrar.invalidate();
+                nfcStateMonitor.onAdapterStateChanged(state);
             }
         }
     };
 
     @Override
     public void onHostResume() {
-
+        hostResumed = true;
+        Activity activity = getCurrentActivity();
+        if (preferredServiceEnabled && activity != null) {
+            aidRegistrar.setPreferredService(activity);
+        }
+        if (readerMode != null && activity != null) {
+            readerMode.resume(activity);
+        }
+        // The default service may have been changed in the system settings
+        nfcStateMonitor.refresh();
     }
 
     @Override
     public void onHostPause() {
-
+        hostResumed = false;
+        Activity activity = getCurrentActivity();
+        if (preferredServiceEnabled && activity != null) {
+            aidRegistrar.unsetPreferredService(activity);
+        }
+        if (readerMode != null && activity != null) {
+            readerMode.pause(activity);
+        }
     }
 
     @Override
     public void onHostDestroy() {
+    }
+
+    @Override
+    public void onCatalystInstanceDestroy() {
         this.reactContext.unregisterReceiver(mReceiver);
+        nfcStateMonitor.stop();
+        aidRegistrar.setChangeCallback(null);
+        aidRegistrar.release();
+        if (readerMode != null) {
+            readerMode.destroy();
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+package studio.bb.rnlib;
+
+import android.app.Activity;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Lets the phone read tags and other HCE devices through
+ * {@link NfcAdapter#enableReaderMode}, while the activity is in the foreground.
+ * <p>
+ * An optional {@link ApduScript} is run as soon as an IsoDep tag is discovered,
+ * from the NFC callback thread, so a whole exchange completes before the reader
+ * hears about the tag. The tag stays connected for further scripts until the
+ * next tag replaces it, which {@link #run(ApduScript, ScriptListener)} runs on a
+ * thread of their own.
+ */
+public class ReaderMode implements NfcAdapter.ReaderCallback {
+
+    private static final String TAG = "ReaderMode";
+
+    public interface Listener {
+        /**
+         * @param result The result of the discovery script, null without script or IsoDep
+         */
+        void onTagDiscovered(Tag tag, ApduScript.Result result);
+    }
+
+    public interface ScriptListener {
+        void onResult(ApduScript.Result result);
+
+        void onError(Exception e);
+    }
+
+    public static class Options {
+        // NfcAdapter.FLAG_READER_* bits
+        public final int flags;
+        // Delay between presence checks of the tag, -1 keeps the platform default
+        public final int presenceCheckDelayMs;
+        // Time to wait for each response, 0 keeps the platform default
+        public final int timeoutMs;
+        // Run on every discovered IsoDep tag, may be null
+        public final ApduScript script;
+
+        public Options(int flags, int presenceCheckDelayMs, int timeoutMs, ApduScript script) {
+            if ((flags & TECHNOLOGY_FLAGS) == 0) {
+                throw new IllegalArgumentException("Reader mode needs at least one technology");
+            }
+            this.flags = flags;
+            this.presenceCheckDelayMs = presenceCheckDelayMs;
+            this.timeoutMs = timeoutMs;
+            this.script = script;
+        }
+    }
+
+    private static final int TECHNOLOGY_FLAGS = NfcAdapter.FLAG_READER_NFC_A | NfcAdapter.FLAG_READER_NFC_B
+            | NfcAdapter.FLAG_READER_NFC_F | NfcAdapter.FLAG_READER_NFC_V | NfcAdapter.FLAG_READER_NFC_BARCODE;
+
+    private final NfcAdapter adapter;
+    // Runs the scripts sent after discovery, one at a time
+    private final HandlerThread thread;
+    private final Handler handler;
+    private Options options = null;
+    private Listener listener = null;
+    private boolean polling = false;
+    // Connection to the last IsoDep tag discovered
+    private IsoDepTransport transport = null;
+    // Keeps scripts from interleaving their APDUs. Closing the transport is done
+    // without it, so pausing interrupts a running exchange instead of waiting for it.
+    private final Object exchangeLock = new Object();
+
+    public ReaderMode(NfcAdapter adapter) {
+        this.adapter = adapter;
+        this.thread = new HandlerThread(TAG);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * @return The NfcAdapter.FLAG_READER_* bit of a technology: A, B, F, V or BARCODE
+     */
+    public static int technologyFlag(String technology) {
+        switch (technology) {
+            case "A":
+                return NfcAdapter.FLAG_READER_NFC_A;
+            case "B":
+                return NfcAdapter.FLAG_READER_NFC_B;
+            case "F":
+                return NfcAdapter.FLAG_READER_NFC_F;
+            case "V":
+                return NfcAdapter.FLAG_READER_NFC_V;
+            case "BARCODE":
+                return NfcAdapter.FLAG_READER_NFC_BARCODE;
+            default:
+                throw new IllegalArgumentException("Unknown technology " + technology);
+        }
+    }
+
+    public static int technologyFlags(List<String> technologies) {
+        int flags = 0;
+        for (String technology : technologies) {
+            flags |= technologyFlag(technology);
+        }
+        return flags;
+    }
+
+    public synchronized void configure(Options options, Listener listener) {
+        this.options = options;
+        this.listener = listener;
+    }
+
+    public synchronized boolean isConfigured() {
+        return options != null;
+    }
+
+    /**
+     * Starts polling with the configured options, call from the UI thread of a
+     * resumed activity
+     */
+    public synchronized void resume(Activity activity) {
+        if (options == null) {
+            return;
+        }
+        Bundle extras = new Bundle();
+        if (options.presenceCheckDelayMs >= 0) {
+            extras.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY, options.presenceCheckDelayMs);
+        }
+        adapter.enableReaderMode(activity, this, options.flags, extras);
+        polling = true;
+    }
+
+    /**
+     * Stops polling, call from the UI thread
+     */
+    public synchronized void pause(Activity activity) {
+        if (polling) {
+            adapter.disableReaderMode(activity);
+            polling = false;
+        }
+        closeTransport();
+    }
+
+    /**
+     * Forgets the options, call {@link #pause} first to stop polling
+     */
+    public synchronized void release() {
+        options = null;
+        listener = null;
+        closeTransport();
+    }
+
+    /**
+     * Releases and stops the script thread, the instance cannot be used afterwards
+     */
+    public void destroy() {
+        release();
+        thread.quitSafely();
+    }
+
+    @Override
+    public void onTagDiscovered(Tag tag) {
+        Options options;
+        Listener listener;
+        synchronized (this) {
+            options = this.options;
+            listener = this.listener;
+            closeTransport();
+        }
+        if (options == null) {
+            return;
+        }
+        ApduScript.Result result = null;
+        IsoDep isoDep = IsoDep.get(tag);
+        if (isoDep != null) {
+            try {
+                IsoDepTransport connected = new IsoDepTransport(isoDep, options.timeoutMs);
+                synchronized (this) {
+                    transport = connected;
+                }
+                if (options.script != null) {
+                    synchronized (exchangeLock) {
+                        result = options.script.run(connected);
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not connect to tag", e);
+            }
+        }
+        if (listener != null) {
+            listener.onTagDiscovered(tag, result);
+        }
+    }
+
+    /**
+     * Runs a script against the last IsoDep tag discovered. Blocks for the whole exchange.
+     *
+     * @throws IOException When no IsoDep tag is connected
+     */
+    public ApduScript.Result run(ApduScript script) throws IOException {
+        IsoDepTransport connected;
+        synchronized (this) {
+            connected = transport;
+        }
+        if (connected == null || !connected.isConnected()) {
+            throw new IOException("No IsoDep tag in the field");
+        }
+        synchronized (exchangeLock) {
+            return script.run(connected);
+        }
+    }
+
+    /**
+     * Runs a script against the last IsoDep tag discovered on the script thread,
+     * the listener is called from that thread once the exchange is over
+     */
+    public void run(final ApduScript script, final ScriptListener listener) {
+        boolean posted = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                ApduScript.Result result;
+                try {
+                    result = ReaderMode.this.run(script);
+                } catch (Exception e) {
+                    listener.onError(e);
+                    return;
+                }
+                listener.onResult(result);
+            }
+        });
+        if (!posted) {
+            listener.onError(new IllegalStateException("Reader mode was destroyed"));
+        }
+    }
+
+    private void closeTransport() {
+        if (transport != null) {
+            transport.close();
+            transport = null;
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+/**
+ * Keys and secrets, kept in a private preferences file of their own and wrapped
+ * with an AES/GCM key that never leaves the Android Keystore.
+ * <p>
+ * Before Android 6 the Keystore cannot hold AES keys, the secrets are then only
+ * protected by the file being private to the app.
+ */
+public class SecretWarehouse {
+
+    private static final String PREFS_FILE = "rnhce-secrets";
+    private static final String TAG = "SecretWarehouse";
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "rnhce-secrets";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+
+    // Prefixes of the stored values: wrapped by the Keystore key, or as is
+    private static final String WRAPPED = "k:";
+    private static final String PLAIN = "p:";
+
+    public static void setSecret(Context c, String name, byte[] secret) {
+        Log.i(TAG, "Setting " + name);
+        String value;
+        try {
+            value = wrap(secret);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not wrap " + name, e);
+        }
+        getPreferences(c).edit().putString(name, value).commit();
+    }
+
+    public static void removeSecret(Context c, String name) {
+        getPreferences(c).edit().remove(name).commit();
+    }
+
+    /**
+     * @param legacyName Preference the secret was kept under, hex encoded, in the
+     *                   default preferences; read as is until {@link #moveLegacySecret} ran
+     * @return The secret, null if none is set or it cannot be unwrapped anymore
+     */
+    public static byte[] getSecret(Context c, String name, String legacyName) {
+        String value = getPreferences(c).getString(name, null);
+        if (value == null) {
+            return readLegacySecret(c, legacyName);
+        }
+        try {
+            return unwrap(value);
+        } catch (Exception e) {
+            Log.e(TAG, "Could not unwrap " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Moves a secret out of the default preferences. Only called from the app
+     * process, which alone writes both files, see {@link SharedConfig}.
+     */
+    public static void moveLegacySecret(Context c, String name, String legacyName) {
+        SharedPreferences defaults = PreferenceManager.getDefaultSharedPreferences(c);
+        if (!defaults.contains(legacyName)) {
+            return;
+        }
+        byte[] secret = readLegacySecret(c, legacyName);
+        if (secret != null && !getPreferences(c).contains(name)) {
+            setSecret(c, name, secret);
+        }
+        defaults.edit().remove(legacyName).commit();
+        Log.i(TAG, "Moved " + legacyName + " out of the default preferences");
+    }
+
+    private static byte[] readLegacySecret(Context c, String legacyName) {
+        String legacy = SharedConfig.getPreferences(c).getString(legacyName, null);
+        if (legacy == null) {
+            return null;
+        }
+        try {
+            return ByteUtils.hexToBytes(legacy);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring invalid " + legacyName, e);
+            return null;
+        }
+    }
+
+    static SharedPreferences getPreferences(Context c) {
+        // Reread when the app process changed them for a service in its own process
+        return SharedConfig.getPreferences(c, PREFS_FILE);
+    }
+
+    private static String wrap(byte[] secret) throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return PLAIN + ByteUtils.bytesToHex(secret);
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, getKey(true));
+        byte[] iv = cipher.getIV();
+        byte[] sealed = cipher.doFinal(secret);
+        byte[] stored = new byte[1 + iv.length + sealed.length];
+        stored[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, stored, 1, iv.length);
+        System.arraycopy(sealed, 0, stored, 1 + iv.length, sealed.length);
+        return WRAPPED + ByteUtils.bytesToHex(stored);
+    }
+
+    private static byte[] unwrap(String value) throws Exception {
+        if (value.startsWith(PLAIN)) {
+            return ByteUtils.hexToBytes(value.substring(PLAIN.length()));
+        }
+        if (!value.startsWith(WRAPPED) || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            throw new IllegalArgumentException("Unknown secret format");
+        }
+        byte[] stored = ByteUtils.hexToBytes(value.substring(WRAPPED.length()));
+        int ivLength = stored[0] & 0xFF;
+        SecretKey key = getKey(false);
+        if (key == null) {
+            throw new IllegalStateException("Keystore key is gone");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, stored, 1, ivLength));
+        return cipher.doFinal(stored, 1 + ivLength, stored.length - 1 - ivLength);
+    }
+
+    private static synchronized SecretKey getKey(boolean create) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        }
+        if (!create) {
+            return null;
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+
+}
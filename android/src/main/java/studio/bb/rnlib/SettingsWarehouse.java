@@ -0,0 +1,103 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Opt-in switches and limits read by CardService, only ever written by the app process
+ */
+public class SettingsWarehouse {
+
+    private static final String PREF_ASYNC_APDU = "ASYNC_APDU";
+    private static final String PREF_TRACING = "TRACING";
+    private static final String PREF_BUDGET = "BUDGET";
+    private static final String PREF_BUDGET_SESSION_APDUS = "BUDGET_SESSION_APDUS";
+    private static final String PREF_BUDGET_SESSION_BYTES = "BUDGET_SESSION_BYTES";
+    private static final String PREF_BUDGET_SESSION_INVALID = "BUDGET_SESSION_INVALID";
+    private static final String PREF_BUDGET_WINDOW_MS = "BUDGET_WINDOW_MS";
+    private static final String PREF_BUDGET_WINDOW_APDUS = "BUDGET_WINDOW_APDUS";
+    private static final String PREF_BUDGET_WINDOW_BYTES = "BUDGET_WINDOW_BYTES";
+    private static final String PREF_BUDGET_WINDOW_INVALID = "BUDGET_WINDOW_INVALID";
+    private static final String TAG = "SettingsWarehouse";
+
+    // Read by CardService at every session start, so it is kept in memory
+    private static volatile WorkBudget.Config sWorkBudget = null;
+    // SharedConfig version sWorkBudget was loaded at
+    private static volatile long sWorkBudgetVersion = 0;
+
+    public static void setAsyncApdu(Context c, boolean enabled) {
+        Log.i(TAG, "Setting ASYNC_APDU: " + enabled);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+        prefs.edit().putBoolean(PREF_ASYNC_APDU, enabled).commit();
+    }
+
+    public static boolean isAsyncApdu(Context c) {
+        // Read by the service process, reread if the app process changed it
+        SharedPreferences prefs = SharedConfig.getPreferences(c);
+        return prefs.getBoolean(PREF_ASYNC_APDU, false);
+    }
+
+    public static void setTracing(Context c, boolean enabled) {
+        Log.i(TAG, "Setting TRACING: " + enabled);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+        prefs.edit().putBoolean(PREF_TRACING, enabled).commit();
+    }
+
+    public static boolean isTracing(Context c) {
+        // Read by the service process, reread if the app process changed it
+        SharedPreferences prefs = SharedConfig.getPreferences(c);
+        return prefs.getBoolean(PREF_TRACING, false);
+    }
+
+    /**
+     * @param config The limits, null restores {@link WorkBudget#DEFAULT}
+     */
+    public static void setWorkBudget(Context c, WorkBudget.Config config) {
+        Log.i(TAG, "Setting BUDGET");
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(c).edit();
+        if (config == null) {
+            editor.remove(PREF_BUDGET);
+        } else {
+            editor.putBoolean(PREF_BUDGET, true);
+            editor.putInt(PREF_BUDGET_SESSION_APDUS, config.maxSessionApdus);
+            editor.putInt(PREF_BUDGET_SESSION_BYTES, config.maxSessionBytes);
+            editor.putInt(PREF_BUDGET_SESSION_INVALID, config.maxSessionInvalid);
+            editor.putLong(PREF_BUDGET_WINDOW_MS, config.windowMs);
+            editor.putInt(PREF_BUDGET_WINDOW_APDUS, config.maxWindowApdus);
+            editor.putInt(PREF_BUDGET_WINDOW_BYTES, config.maxWindowBytes);
+            editor.putInt(PREF_BUDGET_WINDOW_INVALID, config.maxWindowInvalid);
+        }
+        editor.commit();
+        sWorkBudget = config != null ? config : WorkBudget.DEFAULT;
+        sWorkBudgetVersion = SharedConfig.publish(c, SharedConfig.WORK_BUDGET);
+    }
+
+    public static WorkBudget.Config getWorkBudget(Context c) {
+        WorkBudget.Config config = sWorkBudget;
+        long version = SharedConfig.getVersion(c, SharedConfig.WORK_BUDGET);
+        if (config == null || version != sWorkBudgetVersion) {
+            SharedPreferences prefs = SharedConfig.getPreferences(c);
+            config = WorkBudget.DEFAULT;
+            if (prefs.getBoolean(PREF_BUDGET, false)) {
+                try {
+                    config = new WorkBudget.Config(
+                            prefs.getInt(PREF_BUDGET_SESSION_APDUS, 0),
+                            prefs.getInt(PREF_BUDGET_SESSION_BYTES, 0),
+                            prefs.getInt(PREF_BUDGET_SESSION_INVALID, 0),
+                            prefs.getLong(PREF_BUDGET_WINDOW_MS, 0),
+                            prefs.getInt(PREF_BUDGET_WINDOW_APDUS, 0),
+                            prefs.getInt(PREF_BUDGET_WINDOW_BYTES, 0),
+                            prefs.getInt(PREF_BUDGET_WINDOW_INVALID, 0));
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Ignoring invalid stored budget", e);
+                }
+            }
+            sWorkBudget = config;
+            sWorkBudgetVersion = version;
+        }
+        return config;
+    }
+
+}
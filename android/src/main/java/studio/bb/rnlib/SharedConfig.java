@@ -0,0 +1,73 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Lets a {@link CardService} running in its own process notice configuration the
+ * app process changed, for the warehouses that keep what they load in memory.
+ * <p>
+ * Each kind of configuration has a version in the {@link CardStateStore} slots.
+ * The process changing it commits the preferences, then calls {@link #publish};
+ * a process holding it in memory compares {@link #getVersion} with the version
+ * it loaded and reloads through {@link #getPreferences}, which rereads preference
+ * files another process rewrote.
+ * <p>
+ * A commit writes the whole file as the committing process last saw it, so every
+ * preferences file has a single writing process. The app process writes the
+ * default preferences, the secrets and the profiles; the service process only
+ * reads them, and keeps what it writes itself, such as the next token counter, in
+ * files of its own.
+ */
+class SharedConfig {
+
+    private static final String TAG = "SharedConfig";
+
+    static final int FILES = 0;
+    static final int TOKENS = 1;
+    static final int AUTHENTICATION = 2;
+    static final int WORK_BUDGET = 3;
+    // Bumped by resets of the CardMetrics counters
+    static final int METRICS = 4;
+
+    /**
+     * @return The version of the configuration, 0 when the shared card state is unavailable
+     */
+    static long getVersion(Context c, int slot) {
+        CardStateStore store = IDWarehouse.getStore(c);
+        return store != null ? store.getConfigVersion(slot) : 0;
+    }
+
+    /**
+     * Tells the other processes the configuration changed, call once it is committed
+     *
+     * @return The new version of the configuration
+     */
+    static long publish(Context c, int slot) {
+        CardStateStore store = IDWarehouse.getStore(c);
+        if (store == null) {
+            return 0;
+        }
+        try {
+            return store.bumpConfigVersion(slot);
+        } catch (Exception e) {
+            Log.e(TAG, "Could not publish configuration " + slot, e);
+            return 0;
+        }
+    }
+
+    /**
+     * @return The default preferences, reread if another process changed them
+     */
+    static SharedPreferences getPreferences(Context c) {
+        return getPreferences(c, c.getPackageName() + "_preferences");
+    }
+
+    @SuppressWarnings("deprecation")
+    static SharedPreferences getPreferences(Context c, String name) {
+        // Deprecated for lacking any locking, which the versions provide here
+        return c.getSharedPreferences(name, Context.MODE_MULTI_PROCESS);
+    }
+
+}
@@ -0,0 +1,372 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append-only binary journal of the card sessions served by {@link CardService}.
+ * <p>
+ * Every session is stored as a fixed-width {@link #RECORD_SIZE} byte record:
+ * <pre>
+ *  0  timestamp (ms, long)
+ *  8  card state version (long), see {@link IDWarehouse#getStateVersion}
+ * 16  content hash (int)
+ * 20  bytes served (int)
+ * 24  APDU count (unsigned short)
+ * 26  result (byte)
+ * 27  deactivation reason (byte)
+ * 28  AID length (byte)
+ * 29  AID (16 bytes, zero padded)
+ * 45  reserved (3 bytes)
+ * </pre>
+ * Records are queued by the APDU thread and group-committed by a writer thread
+ * into segment files that rotate at {@link #SEGMENT_SIZE} bytes. The oldest
+ * segments are deleted once the journal grows beyond {@link #MAX_SEGMENTS} segments.
+ * Queries read the segments in batches of positional channel reads, so the journal
+ * is never loaded as a whole. They look at every record instead of searching the
+ * time range, as the wall clock can be set back between two sessions.
+ * <p>
+ * The app process may clear the journal a {@link CardService} in its own process
+ * is writing. The writer checks its segment file is still there before every
+ * commit and otherwise starts over from the segments left, so it never keeps
+ * appending to a deleted file. Only a batch committed while the files are being
+ * deleted, made of sessions that ended before the clear, can be lost.
+ */
+public class TapJournal {
+
+    private static final String TAG = "TapJournal";
+    private static final String DIRECTORY = "rnhce-journal";
+    private static final String SEGMENT_SUFFIX = ".tj";
+
+    public static final int RECORD_SIZE = 48;
+    public static final int MAX_AID_LENGTH = 16;
+    private static final int SEGMENT_SIZE = RECORD_SIZE * 4096;
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MAX_PENDING_RECORDS = 256;
+    // Time the writer waits for more records before committing a batch
+    private static final long GROUP_COMMIT_DELAY_MS = 20;
+    private static final int READ_BATCH_RECORDS = 64;
+
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_ERROR = 1;
+    public static final int RESULT_INCOMPLETE = 2;
+    // The reader ran out of WorkBudget before reading the NDEF file
+    public static final int RESULT_THROTTLED = 3;
+
+    private static TapJournal sInstance = null;
+
+    public static class Entry {
+        public final long timestamp;
+        public final long contentVersion;
+        public final int contentHash;
+        public final int bytesServed;
+        public final int apduCount;
+        public final int result;
+        public final int deactivationReason;
+        public final byte[] aid;
+
+        Entry(long timestamp, long contentVersion, int contentHash, int bytesServed, int apduCount,
+              int result, int deactivationReason, byte[] aid) {
+            this.timestamp = timestamp;
+            this.contentVersion = contentVersion;
+            this.contentHash = contentHash;
+            this.bytesServed = bytesServed;
+            this.apduCount = apduCount;
+            this.result = result;
+            this.deactivationReason = deactivationReason;
+            this.aid = aid;
+        }
+    }
+
+    private final File directory;
+    private final Object lock = new Object();
+    // Guards the segment files, never held while appending
+    private final Object fileLock = new Object();
+    // Records waiting for the writer, swapped with the spare buffer on every commit
+    private ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * MAX_PENDING_RECORDS);
+    private ByteBuffer spare = ByteBuffer.allocate(RECORD_SIZE * MAX_PENDING_RECORDS);
+    private int droppedRecords = 0;
+    private Thread writer = null;
+
+    private RandomAccessFile segmentFile = null;
+    private long segmentSequence = -1;
+
+    public static synchronized TapJournal get(Context c) {
+        if (sInstance == null) {
+            sInstance = new TapJournal(new File(c.getApplicationContext().getFilesDir(), DIRECTORY));
+        }
+        return sInstance;
+    }
+
+    TapJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Queues a session record. Never blocks on I/O; records are dropped if the
+     * writer falls more than {@link #MAX_PENDING_RECORDS} records behind.
+     */
+    public void append(long timestamp, long contentVersion, int contentHash, int bytesServed, int apduCount,
+                       int result, int deactivationReason, byte[] aid, int aidLength) {
+        synchronized (lock) {
+            if (pending.remaining() < RECORD_SIZE) {
+                droppedRecords++;
+                return;
+            }
+            int length = Math.min(aidLength, MAX_AID_LENGTH);
+            pending.putLong(timestamp);
+            pending.putLong(contentVersion);
+            pending.putInt(contentHash);
+            pending.putInt(bytesServed);
+            pending.putShort((short) Math.min(apduCount, 0xFFFF));
+            pending.put((byte) result);
+            pending.put((byte) deactivationReason);
+            pending.put((byte) length);
+            pending.put(aid, 0, length);
+            for (int i = length; i < MAX_AID_LENGTH + 3; i++) {
+                pending.put((byte) 0);
+            }
+            if (writer == null) {
+                writer = new Thread(writeLoop, TAG);
+                writer.setDaemon(true);
+                writer.start();
+            }
+            lock.notify();
+        }
+    }
+
+    /**
+     * Returns the records whose timestamp lies in [from, to], in the order they were journaled
+     *
+     * @param offset
+     *          Number of matching records to skip
+     * @param limit
+     *          Maximum number of records to return
+     */
+    public List<Entry> query(long from, long to, int offset, int limit) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * READ_BATCH_RECORDS);
+        for (File segment : listSegments()) {
+            if (entries.size() >= limit) {
+                break;
+            }
+            RandomAccessFile file;
+            try {
+                file = new RandomAccessFile(segment, "r");
+            } catch (IOException e) {
+                // Rotated away while we were listing
+                continue;
+            }
+            try {
+                FileChannel channel = file.getChannel();
+                long count = channel.size() / RECORD_SIZE;
+                long index = 0;
+                while (index < count && entries.size() < limit) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(READ_BATCH_RECORDS, count - index) * RECORD_SIZE);
+                    readFully(channel, buffer, index * RECORD_SIZE);
+                    buffer.flip();
+                    while (buffer.remaining() >= RECORD_SIZE && entries.size() < limit) {
+                        index++;
+                        long timestamp = buffer.getLong(buffer.position());
+                        if (timestamp < from || timestamp > to) {
+                            buffer.position(buffer.position() + RECORD_SIZE);
+                        } else if (offset > 0) {
+                            offset--;
+                            buffer.position(buffer.position() + RECORD_SIZE);
+                        } else {
+                            entries.add(readEntry(buffer));
+                        }
+                    }
+                }
+            } finally {
+                file.close();
+            }
+        }
+        return entries;
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            pending.clear();
+        }
+        synchronized (fileLock) {
+            closeSegment();
+            for (File segment : listSegments()) {
+                if (!segment.delete()) {
+                    Log.w(TAG, "Could not delete " + segment);
+                }
+            }
+            segmentSequence = -1;
+        }
+    }
+
+    public int getDroppedRecords() {
+        synchronized (lock) {
+            return droppedRecords;
+        }
+    }
+
+    private final Runnable writeLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                ByteBuffer batch;
+                try {
+                    synchronized (lock) {
+                        while (pending.position() == 0) {
+                            lock.wait();
+                        }
+                    }
+                    // Let the rest of a burst arrive so it is committed with one write
+                    Thread.sleep(GROUP_COMMIT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                synchronized (lock) {
+                    batch = pending;
+                    pending = spare;
+                    spare = batch;
+                }
+                // Only this thread swaps the buffers, so the batch is ours until the next iteration
+                batch.flip();
+                synchronized (fileLock) {
+                    try {
+                        commit(batch);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not write journal", e);
+                        closeSegment();
+                    }
+                }
+                batch.clear();
+            }
+        }
+    };
+
+    private void commit(ByteBuffer batch) throws IOException {
+        if (segmentFile != null && !segmentName(segmentSequence).exists()) {
+            // Cleared by another process
+            closeSegment();
+            segmentSequence = -1;
+        }
+        while (batch.hasRemaining()) {
+            FileChannel channel = openSegment();
+            long room = (SEGMENT_SIZE - channel.size()) / RECORD_SIZE * RECORD_SIZE;
+            if (room <= 0) {
+                rotate();
+                continue;
+            }
+            int limit = batch.limit();
+            batch.limit((int) Math.min(limit, batch.position() + room));
+            channel.position(channel.size());
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            batch.limit(limit);
+            channel.force(false);
+        }
+    }
+
+    private FileChannel openSegment() throws IOException {
+        if (segmentFile == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            if (segmentSequence < 0) {
+                File[] segments = listSegments();
+                segmentSequence = segments.length == 0 ? 0 : sequenceOf(segments[segments.length - 1]);
+            }
+            segmentFile = new RandomAccessFile(segmentName(segmentSequence), "rw");
+            // Drop a record torn by a crash so the file stays aligned
+            long size = segmentFile.length();
+            segmentFile.setLength(size - size % RECORD_SIZE);
+        }
+        return segmentFile.getChannel();
+    }
+
+    private void rotate() {
+        closeSegment();
+        segmentSequence++;
+        File[] segments = listSegments();
+        for (int i = 0; i < segments.length - MAX_SEGMENTS + 1; i++) {
+            if (!segments[i].delete()) {
+                Log.w(TAG, "Could not delete " + segments[i]);
+            }
+        }
+    }
+
+    private void closeSegment() {
+        if (segmentFile != null) {
+            try {
+                segmentFile.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close segment", e);
+            }
+            segmentFile = null;
+        }
+    }
+
+    private File segmentName(long sequence) {
+        return new File(directory, String.format(Locale.US, "%016d%s", sequence, SEGMENT_SUFFIX));
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private File[] listSegments() {
+        File[] segments = directory.listFiles();
+        if (segments == null) {
+            return new File[0];
+        }
+        List<File> list = new ArrayList<>();
+        for (File segment : segments) {
+            if (segment.getName().endsWith(SEGMENT_SUFFIX)) {
+                list.add(segment);
+            }
+        }
+        File[] sorted = list.toArray(new File[0]);
+        // Zero padded sequence numbers sort chronologically by name
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal segment");
+            }
+            position += read;
+        }
+    }
+
+    private static Entry readEntry(ByteBuffer buffer) {
+        int start = buffer.position();
+        long timestamp = buffer.getLong();
+        long contentVersion = buffer.getLong();
+        int contentHash = buffer.getInt();
+        int bytesServed = buffer.getInt();
+        int apduCount = buffer.getShort() & 0xFFFF;
+        int result = buffer.get();
+        int deactivationReason = buffer.get();
+        int aidLength = Math.min(buffer.get() & 0xFF, MAX_AID_LENGTH);
+        byte[] aid = new byte[aidLength];
+        buffer.get(aid);
+        buffer.position(start + RECORD_SIZE);
+        return new Entry(timestamp, contentVersion, contentHash, bytesServed, apduCount,
+                result, deactivationReason, aid);
+    }
+
+}
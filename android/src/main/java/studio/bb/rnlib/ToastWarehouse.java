@@ -18,6 +18,7 @@ public class ToastWarehouse {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
         prefs.edit().putString("S_TOAST", s).commit();
         S_TOAST = s;
+        IDWarehouse.publish(c);
     }
 
     public static void setErrorToast(Context c, String s) {
@@ -25,9 +26,43 @@ public class ToastWarehouse {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
         prefs.edit().putString("E_TOAST", s).commit();
         E_TOAST = s;
+        IDWarehouse.publish(c);
+    }
+
+    static void putSuccessToast(SharedPreferences.Editor editor, String s) {
+        editor.putString("S_TOAST", s);
+    }
+
+    static void putErrorToast(SharedPreferences.Editor editor, String s) {
+        editor.putString("E_TOAST", s);
+    }
+
+    static void cacheToasts(String success, String error) {
+        if (success != null) {
+            S_TOAST = success;
+        }
+        if (error != null) {
+            E_TOAST = error;
+        }
+    }
+
+    static void reset() {
+        S_TOAST = null;
+        E_TOAST = null;
     }
 
     public static String getSuccessToast(Context c) {
+        IDWarehouse.sync(c);
+        return loadSuccessToast(c);
+    }
+
+    public static String getErrorToast(Context c) {
+        IDWarehouse.sync(c);
+        return loadErrorToast(c);
+    }
+
+    // Without syncing, for IDWarehouse.publish
+    static String loadSuccessToast(Context c) {
         if(S_TOAST == null) {
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
             S_TOAST = prefs.getString("S_TOAST", DEFAULT_S_TOAST);
@@ -35,7 +70,7 @@ public class ToastWarehouse {
         return S_TOAST;
     }
 
-    public static String getErrorToast(Context c) {
+    static String loadErrorToast(Context c) {
         if(E_TOAST == null) {
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
             E_TOAST = prefs.getString("E_TOAST", DEFAULT_E_TOAST);
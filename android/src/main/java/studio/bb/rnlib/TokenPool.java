@@ -0,0 +1,439 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+/**
+ * Pool of pre-encoded one-time credential tokens served instead of the static idTag.
+ * <p>
+ * A token is the text <code>idTag:step:mac</code>, where mac is the truncated
+ * HMAC-SHA256 of the big-endian step followed by the UTF-8 idTag, under the
+ * configured secret. In time mode the step is the current time window and the token
+ * is reused until the window passes; in counter mode the step is a counter and every
+ * tap consumes one token.
+ * <p>
+ * Tokens and their NDEF files are generated ahead of time on a background thread,
+ * so {@link #take()} only pops a ready image and does not run the HMAC or the encoder
+ * inside the tap window. In time mode the pool is topped up at every step boundary;
+ * only when that was held up, e.g. by deep sleep, is the current token computed
+ * during the tap.
+ * <p>
+ * Only the process serving tokens, the one {@link #warmUp()} or {@link #take()} was
+ * called in, generates them and keeps the next counter, in a preferences file no
+ * other process writes. The app process configuring a service running in its own
+ * process therefore never derives counters the service could also issue.
+ */
+public class TokenPool {
+
+    private static final String TAG = "TokenPool";
+
+    private static final String PREF_ENABLED = "TOKEN_ENABLED";
+    // Kept by SecretWarehouse, in the default preferences before
+    static final String PREF_SECRET = "TOKEN_SECRET";
+    private static final String PREF_TIME_MODE = "TOKEN_TIME_MODE";
+    private static final String PREF_STEP_MS = "TOKEN_STEP_MS";
+    private static final String PREF_DEPTH = "TOKEN_DEPTH";
+    private static final String PREF_LOW_WATERMARK = "TOKEN_LOW_WATERMARK";
+    private static final String PREF_SKEW_STEPS = "TOKEN_SKEW_STEPS";
+    private static final String PREF_CLOCK_OFFSET_MS = "TOKEN_CLOCK_OFFSET_MS";
+    private static final String PREF_TOKEN_BYTES = "TOKEN_BYTES";
+    private static final String PREF_NEXT_COUNTER = "TOKEN_NEXT_COUNTER";
+    // Only written by the serving process, the default preferences kept the counter before
+    private static final String COUNTER_FILE = "rnhce-token-counter";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static TokenPool sInstance = null;
+
+    public static class Config {
+        public final byte[] secret;
+        public final boolean timeMode;
+        public final long stepMs;
+        public final int depth;
+        public final int lowWatermark;
+        public final int skewSteps;
+        public final long clockOffsetMs;
+        public final int tokenBytes;
+
+        public Config(byte[] secret, boolean timeMode, long stepMs, int depth, int lowWatermark,
+                      int skewSteps, long clockOffsetMs, int tokenBytes) {
+            if (secret.length == 0) {
+                throw new IllegalArgumentException("Token secret must not be empty");
+            }
+            if (stepMs <= 0 || depth <= 0 || lowWatermark < 0 || lowWatermark >= depth || skewSteps < 0
+                    || tokenBytes < 4 || tokenBytes > 32) {
+                throw new IllegalArgumentException("Invalid token pool configuration");
+            }
+            this.secret = secret;
+            this.timeMode = timeMode;
+            this.stepMs = stepMs;
+            this.depth = depth;
+            this.lowWatermark = lowWatermark;
+            this.skewSteps = skewSteps;
+            this.clockOffsetMs = clockOffsetMs;
+            this.tokenBytes = tokenBytes;
+        }
+    }
+
+    private static class Token {
+        final long step;
+        final byte[] ndefFile;
+
+        Token(long step, byte[] ndefFile) {
+            this.step = step;
+            this.ndefFile = ndefFile;
+        }
+    }
+
+    private final Context context;
+    private final Handler handler;
+    private final ArrayDeque<Token> tokens = new ArrayDeque<>();
+    private Config config = null;
+    // SharedConfig version config was loaded at
+    private long configVersion = 0;
+    // Card content and version the pooled tokens were derived from
+    private long contentVersion = -1;
+    private long nextStep = -1;
+    private boolean refillScheduled = false;
+    // Set once this process serves tokens, only then is the pool filled
+    private boolean serving = false;
+
+    public static synchronized TokenPool get(Context c) {
+        if (sInstance == null) {
+            sInstance = new TokenPool(c.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TokenPool(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+        this.configVersion = SharedConfig.getVersion(context, SharedConfig.TOKENS);
+        this.config = loadConfig(context);
+    }
+
+    /**
+     * Adopts the configuration another process changed, e.g. the app process for a
+     * service running in its own
+     */
+    private void sync() {
+        long version = SharedConfig.getVersion(context, SharedConfig.TOKENS);
+        synchronized (this) {
+            if (version == configVersion) {
+                return;
+            }
+        }
+        Config loaded = loadConfig(context);
+        synchronized (this) {
+            configVersion = version;
+            config = loaded;
+            tokens.clear();
+            nextStep = -1;
+            contentVersion = -1;
+        }
+        if (loaded == null) {
+            handler.removeCallbacks(stepRefill);
+        } else if (isServing()) {
+            scheduleRefill();
+        }
+    }
+
+    /**
+     * Marks this process as the one serving tokens and starts filling the pool if
+     * rotating tokens are enabled, so the first tap of a new process finds a token ready
+     */
+    public void warmUp() {
+        synchronized (this) {
+            serving = true;
+        }
+        sync();
+        if (isEnabled()) {
+            scheduleRefill();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return config != null;
+    }
+
+    public synchronized int size() {
+        return tokens.size();
+    }
+
+    private synchronized boolean isServing() {
+        return serving;
+    }
+
+    /**
+     * Persists the configuration and starts filling the pool if this process serves
+     * tokens. Null disables rotating tokens.
+     */
+    public void configure(Config newConfig) {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(context).edit();
+        if (newConfig == null) {
+            editor.putBoolean(PREF_ENABLED, false);
+            editor.remove(PREF_SECRET);
+            SecretWarehouse.removeSecret(context, PREF_SECRET);
+        } else {
+            SecretWarehouse.setSecret(context, PREF_SECRET, newConfig.secret);
+            editor.putBoolean(PREF_ENABLED, true);
+            editor.putBoolean(PREF_TIME_MODE, newConfig.timeMode);
+            editor.putLong(PREF_STEP_MS, newConfig.stepMs);
+            editor.putInt(PREF_DEPTH, newConfig.depth);
+            editor.putInt(PREF_LOW_WATERMARK, newConfig.lowWatermark);
+            editor.putInt(PREF_SKEW_STEPS, newConfig.skewSteps);
+            editor.putLong(PREF_CLOCK_OFFSET_MS, newConfig.clockOffsetMs);
+            editor.putInt(PREF_TOKEN_BYTES, newConfig.tokenBytes);
+        }
+        editor.commit();
+        long version = SharedConfig.publish(context, SharedConfig.TOKENS);
+        synchronized (this) {
+            configVersion = version;
+            config = newConfig;
+            tokens.clear();
+            nextStep = -1;
+            contentVersion = -1;
+        }
+        if (newConfig == null) {
+            handler.removeCallbacks(stepRefill);
+        } else if (isServing()) {
+            scheduleRefill();
+        }
+    }
+
+    /**
+     * Returns the NDEF file of the token to serve now, or null if no valid token is ready.
+     * A refill is scheduled when the pool runs low; only a time mode pool left behind
+     * by its step refills computes the current token here.
+     */
+    public byte[] take() {
+        synchronized (this) {
+            serving = true;
+        }
+        sync();
+        byte[] ndefFile = null;
+        boolean refill;
+        Config current;
+        synchronized (this) {
+            current = config;
+            if (current == null) {
+                return null;
+            }
+            if (contentVersion != IDWarehouse.getVersion()) {
+                // Tokens embed the idTag, the ones pooled for the previous content are useless
+                tokens.clear();
+                nextStep = -1;
+            } else if (config.timeMode) {
+                long step = currentStep(config);
+                while (!tokens.isEmpty() && tokens.peekFirst().step < step) {
+                    tokens.pollFirst();
+                }
+                // A token up to skewSteps ahead is still served if the current one is missing
+                Token token = tokens.peekFirst();
+                if (token != null && token.step <= step + config.skewSteps) {
+                    ndefFile = token.ndefFile;
+                }
+            } else {
+                Token token = tokens.pollFirst();
+                if (token != null) {
+                    ndefFile = token.ndefFile;
+                }
+            }
+            refill = tokens.size() <= config.lowWatermark;
+        }
+        if (refill) {
+            scheduleRefill();
+        }
+        if (ndefFile == null && current.timeMode) {
+            Log.w(TAG, "No token ready, computing the current one");
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(new SecretKeySpec(current.secret, HMAC_ALGORITHM));
+                ndefFile = CardService.createNdefFile(createToken(mac, new byte[8], IDWarehouse.getID(context),
+                        currentStep(current), current.tokenBytes));
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Could not generate token", e);
+            }
+        } else if (ndefFile == null) {
+            Log.w(TAG, "No token ready");
+        }
+        return ndefFile;
+    }
+
+    private void scheduleRefill() {
+        synchronized (this) {
+            if (refillScheduled) {
+                return;
+            }
+            refillScheduled = true;
+        }
+        handler.post(refill);
+    }
+
+    // Time mode: one token expires at every step boundary, top the pool up as it passes
+    private void scheduleStepRefill(Config config) {
+        long now = System.currentTimeMillis() + config.clockOffsetMs;
+        long delay = config.stepMs - ((now % config.stepMs) + config.stepMs) % config.stepMs;
+        handler.removeCallbacks(stepRefill);
+        handler.postDelayed(stepRefill, delay);
+    }
+
+    private final Runnable stepRefill = new Runnable() {
+        @Override
+        public void run() {
+            scheduleRefill();
+        }
+    };
+
+    private final Runnable refill = new Runnable() {
+        @Override
+        public void run() {
+            Config current;
+            long step;
+            int missing;
+            long version;
+            synchronized (TokenPool.this) {
+                refillScheduled = false;
+                current = config;
+                if (current == null) {
+                    return;
+                }
+                version = IDWarehouse.getVersion();
+                if (contentVersion != version) {
+                    tokens.clear();
+                    nextStep = -1;
+                }
+                if (current.timeMode) {
+                    long now = currentStep(current);
+                    while (!tokens.isEmpty() && tokens.peekFirst().step < now) {
+                        tokens.pollFirst();
+                    }
+                    if (nextStep < now) {
+                        tokens.clear();
+                        nextStep = now;
+                    }
+                } else if (nextStep < 0) {
+                    nextStep = loadNextCounter(context);
+                }
+                step = nextStep;
+                missing = current.depth - tokens.size();
+            }
+            if (current.timeMode) {
+                scheduleStepRefill(current);
+            }
+            if (missing <= 0) {
+                return;
+            }
+
+            String idTag = IDWarehouse.getID(context);
+            Token[] generated = new Token[missing];
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(new SecretKeySpec(current.secret, HMAC_ALGORITHM));
+                byte[] counter = new byte[8];
+                for (int i = 0; i < missing; i++) {
+                    generated[i] = new Token(step + i, CardService.createNdefFile(createToken(mac, counter, idTag, step + i, current.tokenBytes)));
+                }
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Could not generate tokens", e);
+                return;
+            }
+            if (!current.timeMode) {
+                // Persist before the tokens can be served so a counter is never issued twice
+                getCounterPreferences(context).edit().putLong(PREF_NEXT_COUNTER, step + missing).commit();
+            }
+
+            synchronized (TokenPool.this) {
+                if (config != current || nextStep != step || IDWarehouse.getVersion() != version) {
+                    // Reconfigured while we were generating, start over
+                    scheduleRefill();
+                    return;
+                }
+                for (Token token : generated) {
+                    tokens.addLast(token);
+                }
+                contentVersion = version;
+                nextStep = step + missing;
+            }
+            Log.i(TAG, "Pool refilled with " + missing + " tokens");
+        }
+    };
+
+    static String createToken(Mac mac, byte[] counter, String idTag, long step, int tokenBytes) {
+        long value = step;
+        for (int i = 7; i >= 0; i--) {
+            counter[i] = (byte) value;
+            value >>>= 8;
+        }
+        mac.update(counter);
+        byte[] digest = mac.doFinal(idTag.getBytes(Charset.forName("UTF-8")));
+        char[] hex = new char[tokenBytes * 2];
+        ByteUtils.bytesToHex(digest, 0, tokenBytes, hex, 0);
+        return idTag + ":" + step + ":" + new String(hex);
+    }
+
+    private static long currentStep(Config config) {
+        return (System.currentTimeMillis() + config.clockOffsetMs) / config.stepMs;
+    }
+
+    @VisibleForTesting
+    static SharedPreferences getCounterPreferences(Context c) {
+        return c.getSharedPreferences(COUNTER_FILE, Context.MODE_PRIVATE);
+    }
+
+    @VisibleForTesting
+    static long loadNextCounter(Context c) {
+        SharedPreferences prefs = getCounterPreferences(c);
+        if (prefs.contains(PREF_NEXT_COUNTER)) {
+            return prefs.getLong(PREF_NEXT_COUNTER, 0);
+        }
+        // Left in the default preferences by an older version, which the app process
+        // keeps writing, so it is only read here and never written back there
+        long legacy = SharedConfig.getPreferences(c).getLong(PREF_NEXT_COUNTER, 0);
+        prefs.edit().putLong(PREF_NEXT_COUNTER, legacy).commit();
+        return legacy;
+    }
+
+    private static Config loadConfig(Context c) {
+        SharedPreferences prefs = SharedConfig.getPreferences(c);
+        if (!prefs.getBoolean(PREF_ENABLED, false)) {
+            return null;
+        }
+        byte[] secret = SecretWarehouse.getSecret(c, PREF_SECRET, PREF_SECRET);
+        if (secret == null) {
+            return null;
+        }
+        try {
+            return new Config(secret,
+                    prefs.getBoolean(PREF_TIME_MODE, true),
+                    prefs.getLong(PREF_STEP_MS, 30000),
+                    prefs.getInt(PREF_DEPTH, 16),
+                    prefs.getInt(PREF_LOW_WATERMARK, 4),
+                    prefs.getInt(PREF_SKEW_STEPS, 1),
+                    prefs.getLong(PREF_CLOCK_OFFSET_MS, 0),
+                    prefs.getInt(PREF_TOKEN_BYTES, 8));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring invalid token configuration", e);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class IDWarehouseTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        IDWarehouse.reset();
+        new File(context.getFilesDir(), "rnhce-card-state").delete();
+    }
+
+    @After
+    public void tearDown() {
+        IDWarehouse.reset();
+    }
+
+    @Test
+    public void keepsTheFirstIDWrittenOverAnExistingStore() {
+        IDWarehouse.setID(context, "old");
+        // A new process, finding the state the previous one published
+        IDWarehouse.reset();
+
+        IDWarehouse.setID(context, "new");
+        assertEquals("new", IDWarehouse.getID(context));
+
+        IDWarehouse.reset();
+        assertEquals("new", IDWarehouse.getID(context));
+    }
+
+    @Test
+    public void keepsTheFirstToastsWrittenOverAnExistingStore() {
+        IDWarehouse.setCardState(context, "idTag", "old success", "old error");
+        IDWarehouse.reset();
+
+        ToastWarehouse.setSuccessToast(context, "new success");
+        assertEquals("new success", ToastWarehouse.getSuccessToast(context));
+        IDWarehouse.reset();
+        ToastWarehouse.setErrorToast(context, "new error");
+        assertEquals("new error", ToastWarehouse.getErrorToast(context));
+
+        IDWarehouse.reset();
+        assertEquals("idTag", IDWarehouse.getID(context));
+        assertEquals("new success", ToastWarehouse.getSuccessToast(context));
+        assertEquals("new error", ToastWarehouse.getErrorToast(context));
+    }
+
+    @Test
+    public void keepsTheFirstCardStateWrittenOverAnExistingStore() {
+        IDWarehouse.setCardState(context, "old", "old success", null);
+        IDWarehouse.reset();
+
+        IDWarehouse.setCardState(context, "new", null, "new error");
+        assertEquals("new", IDWarehouse.getID(context));
+
+        IDWarehouse.reset();
+        assertEquals("new", IDWarehouse.getID(context));
+        assertEquals("old success", ToastWarehouse.getSuccessToast(context));
+        assertEquals("new error", ToastWarehouse.getErrorToast(context));
+    }
+
+}
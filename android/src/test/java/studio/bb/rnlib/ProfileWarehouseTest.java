@@ -0,0 +1,132 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class ProfileWarehouseTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        IDWarehouse.reset();
+        new File(context.getFilesDir(), "rnhce-card-state").delete();
+    }
+
+    @After
+    public void tearDown() {
+        IDWarehouse.reset();
+    }
+
+    @Test
+    public void movesProfilesOutOfTheDefaultPreferences() throws Exception {
+        // As imported by earlier versions
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putStringSet("PROFILES", new HashSet<>(Arrays.asList("p1", "p2")))
+                .putString("PROFILE_CONTENT_p1", "idTag1")
+                .putString("PROFILE_AIDS_p1", "F201808175")
+                .putString("PROFILE_CONTENT_p2", "idTag2")
+                .putString("PROFILE_AIDS_p2", "")
+                .putString("ACTIVE_PROFILE", "p1")
+                .commit();
+
+        assertEquals("p1", ProfileWarehouse.getActiveProfileId(context));
+        ProfileWarehouse.Profile profile = ProfileWarehouse.activateProfile(context, "p2");
+        assertEquals("idTag2", profile.content);
+        assertTrue(profile.aids.isEmpty());
+        assertEquals("p2", ProfileWarehouse.getActiveProfileId(context));
+
+        SharedPreferences defaults = PreferenceManager.getDefaultSharedPreferences(context);
+        assertFalse(defaults.contains("PROFILES"));
+        assertFalse(defaults.contains("PROFILE_CONTENT_p1"));
+        assertFalse(defaults.contains("PROFILE_AIDS_p2"));
+        assertFalse(defaults.contains("ACTIVE_PROFILE"));
+        assertEquals(Arrays.asList("F201808175"), ProfileWarehouse.activateProfile(context, "p1").aids);
+    }
+
+    @Test
+    public void encodesTheActiveProfileOnActivation() throws Exception {
+        context.getSharedPreferences("rnhce-profiles", Context.MODE_PRIVATE).edit()
+                .putStringSet("PROFILES", new HashSet<>(Arrays.asList("p1", "p2")))
+                .putString("PROFILE_CONTENT_p1", "idTag1")
+                .putString("PROFILE_AIDS_p1", "")
+                .putString("PROFILE_CONTENT_p2", "idTag2")
+                .putString("PROFILE_AIDS_p2", "")
+                .commit();
+
+        ProfileWarehouse.activateProfile(context, "p1");
+        assertEquals("idTag1", IDWarehouse.getID(context));
+        assertArrayEquals(CardService.createNdefFile("idTag1"), ProfileWarehouse.getNdefFile("idTag1"));
+
+        ProfileWarehouse.activateProfile(context, "p2");
+        assertEquals("idTag2", IDWarehouse.getID(context));
+        assertNull(ProfileWarehouse.getNdefFile("idTag1"));
+        assertArrayEquals(CardService.createNdefFile("idTag2"), ProfileWarehouse.getNdefFile("idTag2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownProfiles() throws Exception {
+        ProfileWarehouse.activateProfile(context, "missing");
+    }
+
+    @Test
+    public void finishesAnActivationCutShort() {
+        IDWarehouse.setID(context, "idTag1");
+        // The profiles committed, the process gone before the content followed
+        context.getSharedPreferences("rnhce-profiles", Context.MODE_PRIVATE).edit()
+                .putStringSet("PROFILES", new HashSet<>(Arrays.asList("p1", "p2")))
+                .putString("PROFILE_CONTENT_p1", "idTag1")
+                .putString("PROFILE_CONTENT_p2", "idTag2")
+                .putString("ACTIVE_PROFILE", "p2")
+                .putBoolean("CONTENT_PENDING", true)
+                .commit();
+
+        ProfileWarehouse.recover(context);
+        assertEquals("idTag2", IDWarehouse.getID(context));
+
+        // Content set directly afterwards is left alone
+        IDWarehouse.setID(context, "manual");
+        ProfileWarehouse.recover(context);
+        assertEquals("manual", IDWarehouse.getID(context));
+    }
+
+    @Test
+    public void rejectsOversizedContentWithoutPersisting() throws Exception {
+        ProfileWarehouse.importProfiles(context, new StringReader(
+                "{\"activeProfile\":\"p1\",\"profiles\":[{\"id\":\"p1\",\"content\":\"idTag1\"}]}"));
+        char[] large = new char[0x10000];
+        Arrays.fill(large, 'a');
+        try {
+            ProfileWarehouse.importProfiles(context, new StringReader("{\"profiles\":[{\"id\":\"p1\",\"content\":\"idTag1\"},"
+                    + "{\"id\":\"p2\",\"content\":\"" + new String(large) + "\"}]}"));
+            fail("Oversized content accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("p1", ProfileWarehouse.getActiveProfileId(context));
+        assertEquals("idTag1", IDWarehouse.getID(context));
+    }
+
+}
@@ -0,0 +1,93 @@
+package studio.bb.rnlib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SharedConfigTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        IDWarehouse.reset();
+        new File(context.getFilesDir(), "rnhce-card-state").delete();
+    }
+
+    @After
+    public void tearDown() {
+        IDWarehouse.reset();
+    }
+
+    @Test
+    public void bumpsTheVersionOfEachSlot() {
+        assertEquals(0, SharedConfig.getVersion(context, SharedConfig.FILES));
+        assertEquals(1, SharedConfig.publish(context, SharedConfig.FILES));
+        assertEquals(1, SharedConfig.getVersion(context, SharedConfig.FILES));
+        assertEquals(0, SharedConfig.getVersion(context, SharedConfig.WORK_BUDGET));
+    }
+
+    @Test
+    public void reloadsTheWorkBudgetAnotherProcessChanged() {
+        WorkBudget.Config config = new WorkBudget.Config(10, 1000, 2, 60000, 100, 10000, 20);
+        SettingsWarehouse.setWorkBudget(context, config);
+        assertSame(config, SettingsWarehouse.getWorkBudget(context));
+
+        // What the app process does while the service process keeps its cached budget
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt("BUDGET_SESSION_APDUS", 42).commit();
+        assertSame(config, SettingsWarehouse.getWorkBudget(context));
+        SharedConfig.publish(context, SharedConfig.WORK_BUDGET);
+
+        WorkBudget.Config reloaded = SettingsWarehouse.getWorkBudget(context);
+        assertEquals(42, reloaded.maxSessionApdus);
+        assertEquals(1000, reloaded.maxSessionBytes);
+        assertSame(reloaded, SettingsWarehouse.getWorkBudget(context));
+    }
+
+    @Test
+    public void keepsTheWritesOfBothProcessesApart() {
+        SharedPreferences defaults = PreferenceManager.getDefaultSharedPreferences(context);
+        // App process: settings, and what an older version left in the default preferences
+        SettingsWarehouse.setAsyncApdu(context, true);
+        defaults.edit().putLong("TOKEN_NEXT_COUNTER", 7).putString("AUTH_KEY", "00112233").commit();
+        Map<String, ?> written = new HashMap<>(defaults.getAll());
+
+        // Service process: reads them and starts counting, writing to its own file only
+        assertTrue(SettingsWarehouse.isAsyncApdu(context));
+        assertFalse(SettingsWarehouse.isTracing(context));
+        assertArrayEquals(new byte[]{0x00, 0x11, 0x22, 0x33},
+                SecretWarehouse.getSecret(context, "AUTH_KEY", "AUTH_KEY"));
+        assertEquals(7, TokenPool.loadNextCounter(context));
+        TokenPool.getCounterPreferences(context).edit().putLong("TOKEN_NEXT_COUNTER", 23).commit();
+        assertEquals(written, defaults.getAll());
+
+        // App process again, then the service process reading both
+        SettingsWarehouse.setTracing(context, true);
+        SettingsWarehouse.setAsyncApdu(context, false);
+        assertEquals(23, TokenPool.loadNextCounter(context));
+        assertFalse(SettingsWarehouse.isAsyncApdu(context));
+        assertTrue(SettingsWarehouse.isTracing(context));
+    }
+
+}
@@ -0,0 +1,103 @@
+package studio.bb.rnlib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class TapJournalTest {
+
+    private static final byte[] AID = {(byte) 0xF2, 0x01, (byte) 0x80, (byte) 0x81, 0x75};
+
+    private File directory;
+    private TapJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal").toFile();
+        journal = new TapJournal(directory);
+    }
+
+    @After
+    public void tearDown() {
+        journal.clear();
+        directory.delete();
+    }
+
+    @Test
+    public void findsSessionsJournaledAfterTheClockWasSetBack() throws Exception {
+        append(1000, 1);
+        append(2000, 2);
+        // The wall clock was set back between these two sessions
+        append(500, 3);
+        append(3000, 4);
+        List<TapJournal.Entry> all = awaitEntries(4);
+
+        assertEquals(3, all.get(2).contentVersion);
+        List<TapJournal.Entry> early = journal.query(0, 999, 0, 10);
+        assertEquals(1, early.size());
+        assertEquals(500, early.get(0).timestamp);
+
+        List<TapJournal.Entry> late = journal.query(1000, 5000, 0, 10);
+        assertEquals(3, late.size());
+        assertEquals(1, late.get(0).contentVersion);
+        assertEquals(2, late.get(1).contentVersion);
+        assertEquals(4, late.get(2).contentVersion);
+    }
+
+    @Test
+    public void pagesThroughMatchingSessions() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            append(1000 + i, i);
+        }
+        awaitEntries(10);
+
+        List<TapJournal.Entry> page = journal.query(1002, 1008, 2, 3);
+        assertEquals(3, page.size());
+        assertEquals(1004, page.get(0).timestamp);
+        assertEquals(1006, page.get(2).timestamp);
+        assertEquals(AID.length, page.get(0).aid.length);
+        assertEquals(TapJournal.RESULT_OK, page.get(0).result);
+    }
+
+    @Test
+    public void keepsJournalingAfterAnotherProcessCleared() throws Exception {
+        append(1000, 1);
+        awaitEntries(1);
+
+        // The app process clears the journal the service process is writing
+        new TapJournal(directory).clear();
+        append(2000, 2);
+        append(3000, 3);
+
+        List<TapJournal.Entry> entries = awaitEntries(2);
+        assertEquals(2, entries.get(0).contentVersion);
+        assertEquals(3, entries.get(1).contentVersion);
+    }
+
+    private void append(long timestamp, long contentVersion) {
+        journal.append(timestamp, contentVersion, 0, 32, 6, TapJournal.RESULT_OK, 0, AID, AID.length);
+    }
+
+    // Records are committed by the writer thread
+    private List<TapJournal.Entry> awaitEntries(int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<TapJournal.Entry> entries;
+        do {
+            Thread.sleep(20);
+            entries = journal.query(Long.MIN_VALUE, Long.MAX_VALUE, 0, count + 1);
+        } while (entries.size() < count && System.currentTimeMillis() < deadline);
+        assertEquals(count, entries.size());
+        return entries;
+    }
+
+}
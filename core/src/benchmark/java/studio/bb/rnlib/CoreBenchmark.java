@@ -0,0 +1,125 @@
+package studio.bb.rnlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+/**
+ * Measures time and allocated bytes per operation of the card fast paths on a
+ * plain JVM. Run with <code>gradle -p core benchmark</code>.
+ */
+public class CoreBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int MEASURED_ITERATIONS = 1000000;
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private static final byte[] SELECT_APPLICATION = ByteUtils.hexToBytes("00A4040007D276000085010100");
+    private static final byte[] SELECT_CAPABILITY_CONTAINER = ByteUtils.hexToBytes("00A4000C02E103");
+    private static final byte[] READ_CAPABILITY_CONTAINER = ByteUtils.hexToBytes("00B000000F");
+    private static final byte[] SELECT_NDEF = ByteUtils.hexToBytes("00A4000C02E104");
+    private static final byte[] READ_NLEN = ByteUtils.hexToBytes("00B0000002");
+    private static final byte[] READ_BINARY = ByteUtils.hexToBytes("00B00002FF");
+    private static final byte[] NDEF_ID = { (byte) 0xE1, (byte) 0x04 };
+
+    public static void main(String[] args) throws Exception {
+        final String content = "0123456789ABCDEF-card-content";
+        final byte[] ndefFile = NdefEncoder.encodeTextFile("en", content, NDEF_ID);
+        final byte[] response = new byte[ApduEngine.MAX_RESPONSE_LENGTH];
+        final ApduEngine engine = new ApduEngine(new ApduEngine.Delegate() {
+            @Override
+            public byte[] loadNdefFile() {
+                return ndefFile;
+            }
+
+            @Override
+            public int authenticate(byte[] challenge, int offset, int length, byte[] response) {
+                return 0;
+            }
+
+            @Override
+            public FileSystem loadFileSystem() {
+                return FileSystem.EMPTY;
+            }
+        });
+
+        run("READ BINARY", new Operation() {
+            @Override
+            public void run() {
+                engine.process(READ_BINARY, READ_BINARY.length, response);
+            }
+        });
+
+        run("Full session", new Operation() {
+            @Override
+            public void run() {
+                engine.process(SELECT_APPLICATION, SELECT_APPLICATION.length, response);
+                engine.process(SELECT_CAPABILITY_CONTAINER, SELECT_CAPABILITY_CONTAINER.length, response);
+                engine.process(READ_CAPABILITY_CONTAINER, READ_CAPABILITY_CONTAINER.length, response);
+                engine.process(SELECT_NDEF, SELECT_NDEF.length, response);
+                engine.process(READ_NLEN, READ_NLEN.length, response);
+                engine.process(READ_BINARY, READ_BINARY.length, response);
+                engine.reset();
+            }
+        });
+
+        final byte[] buffer = new byte[ndefFile.length];
+        run("Encode NDEF file into buffer", new Operation() {
+            @Override
+            public void run() {
+                NdefEncoder.encodeTextFile("en", content, NDEF_ID, buffer, 0);
+            }
+        });
+
+        run("Encode NDEF file", new Operation() {
+            @Override
+            public void run() {
+                NdefEncoder.encodeTextFile("en", content, NDEF_ID);
+            }
+        });
+
+        File path = File.createTempFile("card-state", null);
+        final CardStateStore store = new CardStateStore(path);
+        try {
+            store.write(content, "ok", "error");
+            run("Card state read, unchanged", new Operation() {
+                @Override
+                public void run() {
+                    store.read();
+                }
+            });
+        } finally {
+            store.close();
+            if (!path.delete()) {
+                throw new IOException("Could not delete " + path);
+            }
+        }
+    }
+
+    private static void run(String name, Operation operation) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        System.out.println(String.format(Locale.US, "%-32s %10.1f ns/op %10.1f B/op", name,
+                (double) elapsed / MEASURED_ITERATIONS, (double) allocated / MEASURED_ITERATIONS));
+    }
+
+}
@@ -0,0 +1,576 @@
+package studio.bb.rnlib;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+/**
+ * The NFC Forum Type 4 Tag command flow answered by {@link CardService}, free of
+ * any Android dependency.
+ * <p>
+ * The following definitions are based on two things: 1. NFC Forum Type 4 Tag
+ * Operation Technical Specification, version 3.0 2014-07-30 2. APDU example in
+ * libnfc: http://nfc-tools.org/index.php?title=Libnfc:APDU_example
+ * <p>
+ * Responses are written into a caller supplied buffer of at least
+ * {@link #MAX_RESPONSE_LENGTH} bytes, so processing a command does not allocate.
+ * An engine holds the state of one card session and is not thread safe.
+ * <p>
+ * Chained commands (CLA bit 0x10) are assembled into a buffer that grows by
+ * doubling and is kept across sessions. A response longer than Le is answered
+ * with 61xx, and GET RESPONSE continues it from a cursor over the image it came
+ * from.
+ */
+public class ApduEngine {
+
+    public static final int MAX_RESPONSE_LENGTH = 256 + 2;
+
+    public static final int COMMAND_UNKNOWN = 0;
+    public static final int COMMAND_SELECT_APPLICATION = 1;
+    public static final int COMMAND_SELECT_CAPABILITY_CONTAINER = 2;
+    public static final int COMMAND_READ_CAPABILITY_CONTAINER = 3;
+    public static final int COMMAND_SELECT_NDEF = 4;
+    public static final int COMMAND_READ_NLEN = 5;
+    public static final int COMMAND_READ_NDEF = 6;
+    public static final int COMMAND_INTERNAL_AUTHENTICATE = 7;
+    public static final int COMMAND_SELECT_FILE = 8;
+    public static final int COMMAND_READ_BINARY = 9;
+    public static final int COMMAND_READ_RECORD = 10;
+    public static final int COMMAND_CHAINED = 11;
+    public static final int COMMAND_GET_RESPONSE = 12;
+
+    public static final int MAX_AID_LENGTH = 16;
+    // Largest command data accepted through command chaining
+    public static final int MAX_CHAINED_DATA_LENGTH = 0x10000;
+
+    /**
+     * Supplies what the engine cannot know by itself
+     */
+    public interface Delegate {
+        /**
+         * Called on every capability container read, i.e. once per session
+         *
+         * @return The NDEF file (NLEN and message) to serve, or null to fail the read
+         */
+        byte[] loadNdefFile();
+
+        /**
+         * Writes MAC(challenge || idTag) at the start of the response
+         *
+         * @return The MAC length, 0 when no key is configured, or -1 when the MAC failed;
+         * both are answered 6985
+         */
+        int authenticate(byte[] challenge, int offset, int length, byte[] response);
+
+        /**
+         * Called on every application select
+         *
+         * @return The elementary files served next to the CC and NDEF files, or null for none
+         */
+        FileSystem loadFileSystem();
+    }
+
+    private static final byte[] APDU_SELECT = {
+            (byte) 0x00, // CLA - Class - Class of instruction
+            (byte) 0xA4, // INS - Instruction - Instruction code
+            (byte) 0x04, // P1 - Parameter 1 - Instruction parameter 1
+            (byte) 0x00 // P2 - Parameter 2 - Instruction parameter 2
+    };
+
+    private static final byte[] CAPABILITY_CONTAINER_OK = {
+            (byte) 0x00, // CLA - Class - Class of instruction
+            (byte) 0xa4, // INS - Instruction - Instruction code
+            (byte) 0x00, // P1 - Parameter 1 - Instruction parameter 1
+            (byte) 0x0c, // P2 - Parameter 2 - Instruction parameter 2
+            (byte) 0x02, // Lc field - Number of bytes present in the data field of the command
+            (byte) 0xe1, (byte) 0x03 // file identifier of the CC file
+    };
+
+    private static final byte[] READ_CAPABILITY_CONTAINER = {
+            (byte) 0x00, // CLA - Class - Class of instruction
+            (byte) 0xb0, // INS - Instruction - Instruction code
+            (byte) 0x00, // P1 - Parameter 1 - Instruction parameter 1
+            (byte) 0x00, // P2 - Parameter 2 - Instruction parameter 2
+            (byte) 0x0f // Le field - Number of bytes expected in the data field of the response
+    };
+
+    private static final byte[] READ_CAPABILITY_CONTAINER_RESPONSE = {
+            (byte) 0x00, (byte) 0x0F, // CCLEN length of the CC file
+            (byte) 0x20, // Mapping Version 2.0
+            (byte) 0xFF, (byte) 0xFF, // MLe maximum R-APDU data size allowed
+            (byte) 0xFF, (byte) 0xFF, // MLc maximum C-APDU data size allowed
+            (byte) 0x04, // T field of the NDEF File Control TLV
+            (byte) 0x06, // L field of the NDEF File Control TLV
+            (byte) 0xE1, (byte) 0x04, // File Identifier of NDEF file
+            (byte) 0xFF, (byte) 0xFE, // Maximum NDEF file size of 65534 bytes
+            (byte) 0x00, // Read access without any security
+            (byte) 0xFF, // Write access not allowed
+            (byte) 0x90, (byte) 0x00 // A_OKAY
+    };
+
+    private static final byte[] NDEF_SELECT_OK = {
+            (byte) 0x00, // CLA - Class - Class of instruction
+            (byte) 0xa4, // Instruction byte (INS) for Select command
+            (byte) 0x00, // Parameter byte (P1), select by identifier
+            (byte) 0x0c, // Parameter byte (P1), select by identifier
+            (byte) 0x02, // Lc field - Number of bytes present in the data field of the command
+            (byte) 0xE1, (byte) 0x04 // file identifier of the NDEF file retrieved from the CC file
+    };
+
+    private static final byte[] NDEF_READ_BINARY = {
+            (byte) 0x00, // Class byte (CLA)
+            (byte) 0xb0 // Instruction byte (INS) for ReadBinary command
+    };
+
+    private static final byte[] NDEF_READ_BINARY_NLEN = {
+            (byte) 0x00, // Class byte (CLA)
+            (byte) 0xb0, // Instruction byte (INS) for ReadBinary command
+            (byte) 0x00, (byte) 0x00, // Parameter byte (P1, P2), offset inside the CC file
+            (byte) 0x02 // Le field
+    };
+
+    private static final byte[] SELECT_FILE = {
+            (byte) 0x00, // CLA - Class - Class of instruction
+            (byte) 0xA4 // INS - Instruction - SELECT, P1 00 or 02 selects by file identifier
+    };
+
+    private static final byte[] READ_RECORD = {
+            (byte) 0x00, // CLA - Class - Class of instruction
+            (byte) 0xB2 // INS - Instruction - READ RECORD
+    };
+
+    private static final byte CLA_CHAINING = 0x10;
+    private static final byte INS_GET_RESPONSE = (byte) 0xC0;
+
+    private static final byte[] INTERNAL_AUTHENTICATE = {
+            (byte) 0x00, // CLA - Class - Class of instruction
+            (byte) 0x88 // INS - Instruction - INTERNAL AUTHENTICATE
+    };
+
+    public static final int SW_OK = 0x9000;
+    // SW2 carries the number of response bytes still available, 00 meaning 256 or more
+    public static final int SW_BYTES_REMAINING = 0x6100;
+    public static final int SW_WRONG_LENGTH = 0x6700;
+    public static final int SW_LAST_COMMAND_EXPECTED = 0x6883;
+    public static final int SW_INCOMPATIBLE_FILE_STRUCTURE = 0x6981;
+    public static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+    public static final int SW_NO_CURRENT_EF = 0x6986;
+    public static final int SW_FILE_NOT_FOUND = 0x6A82;
+    public static final int SW_RECORD_NOT_FOUND = 0x6A83;
+    public static final int SW_WRONG_P1P2 = 0x6B00;
+    // SW2 carries the exact length available
+    public static final int SW_WRONG_LE = 0x6C00;
+
+    private final Delegate delegate;
+
+    // In the scenario that we have done a CC read, the same byte[] match
+    // for ReadBinary would trigger and we don't want that in succession
+    private boolean readCapabilityContainerCheck = false;
+    private byte[] ndefFile = null;
+    private FileSystem fileSystem = FileSystem.EMPTY;
+    // Index of the selected elementary file in fileSystem, -1 when the CC, the NDEF file or nothing is selected
+    private int currentFile = -1;
+
+    private final byte[] aid = new byte[MAX_AID_LENGTH];
+    private int aidLength = 0;
+    private int lastCommand = COMMAND_UNKNOWN;
+    private int lastStatus = SW_OK;
+
+    // Command chaining: header and data of the chained command, data starting at offset 5
+    private byte[] chain = new byte[5 + 256];
+    private int chainLength = 0;
+    // GET RESPONSE: cursor over the image holding the rest of the last response
+    private byte[] pendingImage = null;
+    private int pendingOffset = 0;
+    private int pendingEnd = 0;
+    // Holds responses that had to be copied before being split
+    private byte[] responseImage = new byte[MAX_RESPONSE_LENGTH];
+
+    public ApduEngine(Delegate delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Answers one command APDU
+     *
+     * @param command
+     *          The command APDU
+     * @param length
+     *          The length of the command APDU
+     * @param response
+     *          Receives the response APDU, at least {@link #MAX_RESPONSE_LENGTH} bytes
+     * @return The length of the response APDU
+     */
+    public int process(byte[] command, int length, byte[] response) {
+        if (length < 4) {
+            return status(COMMAND_UNKNOWN, SW_WRONG_LENGTH, response, 0);
+        }
+
+        //
+        // GET RESPONSE (ISO 7816-4 section 11.7.1): continue the last response
+        //
+        if (command[1] == INS_GET_RESPONSE && (command[0] & CLA_CHAINING) == 0) {
+            return getResponse(length == 5 ? ByteUtils.readU8(command, 4) : 0, response);
+        }
+        pendingImage = null;
+
+        // Short APDU cases: header only, header and Le, header Lc and data, optionally followed by Le
+        int dataLength = length > 5 ? ByteUtils.readU8(command, 4) : 0;
+        if (length > 5 && length < 5 + dataLength) {
+            chainLength = 0;
+            return status(COMMAND_UNKNOWN, SW_WRONG_LENGTH, response, 0);
+        }
+        int expected = length == 5 ? ByteUtils.readU8(command, 4)
+                : length > 5 + dataLength ? ByteUtils.readU8(command, 5 + dataLength) : -1;
+
+        //
+        // Command chaining (ISO 7816-4 section 5.1.1.1): collect the data until the last command
+        //
+        if ((command[0] & CLA_CHAINING) != 0 && (command[0] & 0x80) == 0) {
+            if (chainLength > 0 && chain[1] != command[1]) {
+                chainLength = 0;
+                return status(COMMAND_CHAINED, SW_LAST_COMMAND_EXPECTED, response, 0);
+            }
+            if (dataLength == 0 || !appendChain(command, dataLength)) {
+                chainLength = 0;
+                return status(COMMAND_CHAINED, SW_WRONG_LENGTH, response, 0);
+            }
+            return status(COMMAND_CHAINED, SW_OK, response, 0);
+        }
+        if (chainLength > 0) {
+            if (chain[1] != command[1]) {
+                chainLength = 0;
+                return status(COMMAND_CHAINED, SW_LAST_COMMAND_EXPECTED, response, 0);
+            }
+            if (!appendChain(command, dataLength)) {
+                chainLength = 0;
+                return status(COMMAND_CHAINED, SW_WRONG_LENGTH, response, 0);
+            }
+            // The last command of the chain supplies the header
+            System.arraycopy(command, 0, chain, 0, 4);
+            chain[4] = (byte) chainLength;
+            int chainedLength = chainLength;
+            chainLength = 0;
+            return dispatch(chain, 5 + chainedLength, chainedLength, expected, response);
+        }
+        return dispatch(command, length, dataLength, expected, response);
+    }
+
+    /**
+     * Answers a complete command whose data, if any, starts at offset 5
+     *
+     * @param expected
+     *          Le, 0 standing for 256, or -1 when the command has none
+     */
+    private int dispatch(byte[] command, int length, int dataLength, int expected, byte[] response) {
+
+        //
+        // First command: NDEF Tag Application select (Section 5.5.2 in NFC Forum spec)
+        //
+        if (startsWith(command, length, APDU_SELECT)) {
+            if (dataLength > 0) {
+                aidLength = Math.min(dataLength, MAX_AID_LENGTH);
+                System.arraycopy(command, 5, aid, 0, aidLength);
+            }
+            FileSystem files = delegate.loadFileSystem();
+            fileSystem = files != null ? files : FileSystem.EMPTY;
+            currentFile = -1;
+            return status(COMMAND_SELECT_APPLICATION, SW_OK, response, 0);
+        }
+
+        //
+        // Second command: Capability Container select (Section 5.5.3 in NFC Forum spec)
+        //
+        if (equals(command, length, CAPABILITY_CONTAINER_OK)) {
+            currentFile = -1;
+            return status(COMMAND_SELECT_CAPABILITY_CONTAINER, SW_OK, response, 0);
+        }
+
+        //
+        // Third command: ReadBinary data from CC file (Section 5.5.4 in NFC Forum spec)
+        //
+        if (equals(command, length, READ_CAPABILITY_CONTAINER) && !readCapabilityContainerCheck
+                && currentFile < 0) {
+            ndefFile = delegate.loadNdefFile();
+            if (ndefFile == null) {
+                return status(COMMAND_READ_CAPABILITY_CONTAINER, SW_FILE_NOT_FOUND, response, 0);
+            }
+            readCapabilityContainerCheck = true;
+            System.arraycopy(READ_CAPABILITY_CONTAINER_RESPONSE, 0, response, 0, READ_CAPABILITY_CONTAINER_RESPONSE.length);
+            lastCommand = COMMAND_READ_CAPABILITY_CONTAINER;
+            lastStatus = SW_OK;
+            return READ_CAPABILITY_CONTAINER_RESPONSE.length;
+        }
+
+        //
+        // Fourth command: NDEF Select command (Section 5.5.5 in NFC Forum spec)
+        //
+        if (equals(command, length, NDEF_SELECT_OK)) {
+            currentFile = -1;
+            return status(COMMAND_SELECT_NDEF, SW_OK, response, 0);
+        }
+
+        //
+        // SELECT of an elementary file by identifier (ISO 7816-4 section 11.2.2)
+        //
+        if ((length == 7 || length == 8) && startsWith(command, length, SELECT_FILE)
+                && (command[2] == 0x00 || command[2] == 0x02) && command[4] == 0x02) {
+            return selectFile(ByteUtils.readU16(command, 5), command[3], expected, response);
+        }
+
+        //
+        // READ BINARY of an elementary file, selected before or by short file identifier
+        //
+        if (length >= 5 && startsWith(command, length, NDEF_READ_BINARY)
+                && (currentFile >= 0 || (command[2] & 0x80) != 0)) {
+            return readBinary(command, response);
+        }
+
+        //
+        // READ RECORD (ISO 7816-4 section 11.3.3)
+        //
+        if (length >= 5 && startsWith(command, length, READ_RECORD)) {
+            return readRecord(command, response);
+        }
+
+        //
+        // Fifth command: ReadBinary, read NLEN field
+        //
+        if (equals(command, length, NDEF_READ_BINARY_NLEN)) {
+            if (ndefFile == null) {
+                return status(COMMAND_READ_NLEN, SW_FILE_NOT_FOUND, response, 0);
+            }
+            System.arraycopy(ndefFile, 0, response, 0, 2);
+            return status(COMMAND_READ_NLEN, SW_OK, response, 2);
+        }
+
+        //
+        // Sixth command: ReadBinary, get NDEF data
+        //
+        if (length >= 5 && startsWith(command, length, NDEF_READ_BINARY)) {
+            int offset = ByteUtils.readU16(command, 2);
+            if (ndefFile == null || offset > ndefFile.length) {
+                return status(COMMAND_READ_NDEF, SW_FILE_NOT_FOUND, response, 0);
+            }
+
+            // Build our response straight from the NDEF file
+            int realLength = Math.min(ndefFile.length - offset, expectedLength(command));
+            System.arraycopy(ndefFile, offset, response, 0, realLength);
+            readCapabilityContainerCheck = false;
+            return status(COMMAND_READ_NDEF, SW_OK, response, realLength);
+        }
+
+        //
+        // INTERNAL AUTHENTICATE (ISO 7816-4 section 11.5.2): MAC over challenge || idTag
+        //
+        if (length >= 5 && startsWith(command, length, INTERNAL_AUTHENTICATE)) {
+            if (dataLength == 0) {
+                return status(COMMAND_INTERNAL_AUTHENTICATE, SW_WRONG_LENGTH, response, 0);
+            }
+            int macLength = delegate.authenticate(command, 5, dataLength, response);
+            if (macLength <= 0) {
+                // No key, or no MAC that could be trusted: never answer with a wrong one
+                return status(COMMAND_INTERNAL_AUTHENTICATE, SW_CONDITIONS_NOT_SATISFIED, response, 0);
+            }
+            if (expected >= 0 && expectedLength(expected) < macLength) {
+                System.arraycopy(response, 0, responseImage, 0, macLength);
+                return respond(COMMAND_INTERNAL_AUTHENTICATE, responseImage, 0, macLength, expected, response);
+            }
+            return status(COMMAND_INTERNAL_AUTHENTICATE, SW_OK, response, macLength);
+        }
+
+        //
+        // We're doing something outside our scope
+        //
+        return status(COMMAND_UNKNOWN, SW_FILE_NOT_FOUND, response, 0);
+    }
+
+    /**
+     * Forgets the state of the current session
+     */
+    public void reset() {
+        readCapabilityContainerCheck = false;
+        chainLength = 0;
+        pendingImage = null;
+        currentFile = -1;
+        aidLength = 0;
+        lastCommand = COMMAND_UNKNOWN;
+        lastStatus = SW_OK;
+    }
+
+    /**
+     * @return The kind of the last processed command, one of the COMMAND_ constants
+     */
+    public int getLastCommand() {
+        return lastCommand;
+    }
+
+    /**
+     * @return The status word of the last response
+     */
+    public int getLastStatus() {
+        return lastStatus;
+    }
+
+    /**
+     * @return The buffer holding the AID selected in this session, see {@link #getAidLength()}
+     */
+    public byte[] getAid() {
+        return aid;
+    }
+
+    public int getAidLength() {
+        return aidLength;
+    }
+
+    private int selectFile(int fid, byte p2, int expected, byte[] response) {
+        int index = fileSystem.indexOf(fid);
+        if (index < 0) {
+            currentFile = -1;
+            return status(COMMAND_SELECT_FILE, SW_FILE_NOT_FOUND, response, 0);
+        }
+        currentFile = index;
+        if (p2 == 0x0C) {
+            return status(COMMAND_SELECT_FILE, SW_OK, response, 0);
+        }
+        if (p2 != 0x00 && p2 != 0x04) {
+            return status(COMMAND_SELECT_FILE, SW_WRONG_P1P2, response, 0);
+        }
+        byte[] fci = fileSystem.get(index).fci;
+        // The FCI image ends with 9000, which is not part of the data
+        return respond(COMMAND_SELECT_FILE, fci, 0, fci.length - 2, expected, response);
+    }
+
+    private int getResponse(int expected, byte[] response) {
+        if (pendingImage == null) {
+            return status(COMMAND_GET_RESPONSE, SW_CONDITIONS_NOT_SATISFIED, response, 0);
+        }
+        byte[] image = pendingImage;
+        pendingImage = null;
+        return respond(COMMAND_GET_RESPONSE, image, pendingOffset, pendingEnd - pendingOffset, expected, response);
+    }
+
+    /**
+     * Answers with as much of the image as Le allows and keeps a cursor over the rest
+     * for GET RESPONSE, so a long response is never copied more than once
+     */
+    private int respond(int command, byte[] image, int offset, int length, int expected, byte[] response) {
+        int count = expected < 0 ? Math.min(length, MAX_RESPONSE_LENGTH - 2) : Math.min(length, expectedLength(expected));
+        System.arraycopy(image, offset, response, 0, count);
+        int remaining = length - count;
+        if (remaining == 0) {
+            return status(command, SW_OK, response, count);
+        }
+        pendingImage = image;
+        pendingOffset = offset + count;
+        pendingEnd = offset + length;
+        return status(command, SW_BYTES_REMAINING | (remaining > 0xFF ? 0 : remaining), response, count);
+    }
+
+    private boolean appendChain(byte[] command, int dataLength) {
+        if (chainLength + dataLength > MAX_CHAINED_DATA_LENGTH) {
+            return false;
+        }
+        if (chain.length < 5 + chainLength + dataLength) {
+            // Doubling keeps assembling a long chain linear
+            byte[] grown = new byte[Math.max(chain.length * 2, 5 + chainLength + dataLength)];
+            System.arraycopy(chain, 0, grown, 0, 5 + chainLength);
+            chain = grown;
+        }
+        if (chainLength == 0) {
+            System.arraycopy(command, 0, chain, 0, 4);
+            chain[0] &= ~CLA_CHAINING;
+        }
+        System.arraycopy(command, 5, chain, 5 + chainLength, dataLength);
+        chainLength += dataLength;
+        return true;
+    }
+
+    private int readBinary(byte[] command, byte[] response) {
+        int p1 = ByteUtils.readU8(command, 2);
+        int offset;
+        if ((p1 & 0x80) != 0) {
+            int index = fileSystem.indexOfSfi(p1 & 0x1F);
+            if (index < 0) {
+                return status(COMMAND_READ_BINARY, SW_FILE_NOT_FOUND, response, 0);
+            }
+            currentFile = index;
+            offset = ByteUtils.readU8(command, 3);
+        } else {
+            offset = ByteUtils.readU16(command, 2);
+        }
+        FileSystem.ElementaryFile file = fileSystem.get(currentFile);
+        if (file.isRecordFile()) {
+            return status(COMMAND_READ_BINARY, SW_INCOMPATIBLE_FILE_STRUCTURE, response, 0);
+        }
+        if (offset > file.content.length) {
+            return status(COMMAND_READ_BINARY, SW_WRONG_P1P2, response, 0);
+        }
+        int realLength = Math.min(file.content.length - offset, expectedLength(command));
+        System.arraycopy(file.content, offset, response, 0, realLength);
+        return status(COMMAND_READ_BINARY, SW_OK, response, realLength);
+    }
+
+    private int readRecord(byte[] command, byte[] response) {
+        int number = ByteUtils.readU8(command, 2);
+        int p2 = ByteUtils.readU8(command, 3);
+        if ((p2 & 0x07) != 0x04 || number == 0) {
+            // Only reading record number P1 is supported
+            return status(COMMAND_READ_RECORD, SW_WRONG_P1P2, response, 0);
+        }
+        int sfi = p2 >>> 3;
+        if (sfi != 0) {
+            int index = fileSystem.indexOfSfi(sfi);
+            if (index < 0) {
+                return status(COMMAND_READ_RECORD, SW_FILE_NOT_FOUND, response, 0);
+            }
+            currentFile = index;
+        } else if (currentFile < 0) {
+            return status(COMMAND_READ_RECORD, SW_NO_CURRENT_EF, response, 0);
+        }
+        FileSystem.ElementaryFile file = fileSystem.get(currentFile);
+        if (!file.isRecordFile()) {
+            return status(COMMAND_READ_RECORD, SW_INCOMPATIBLE_FILE_STRUCTURE, response, 0);
+        }
+        if (number > file.records.length) {
+            return status(COMMAND_READ_RECORD, SW_RECORD_NOT_FOUND, response, 0);
+        }
+        byte[] record = file.records[number - 1];
+        int expected = ByteUtils.readU8(command, 4);
+        if (expected != 0 && expected < record.length) {
+            return status(COMMAND_READ_RECORD, SW_WRONG_LE | record.length, response, 0);
+        }
+        System.arraycopy(record, 0, response, 0, record.length);
+        return status(COMMAND_READ_RECORD, SW_OK, response, record.length);
+    }
+
+    // Le of a short APDU, where 00 stands for 256
+    private static int expectedLength(byte[] command) {
+        return expectedLength(ByteUtils.readU8(command, 4));
+    }
+
+    private static int expectedLength(int expected) {
+        return expected == 0 ? MAX_RESPONSE_LENGTH - 2 : expected;
+    }
+
+    /**
+     * @return True for 9000 and for 61xx, which announces more response data
+     */
+    public static boolean isSuccess(int statusWord) {
+        return statusWord == SW_OK || (statusWord & 0xFF00) == SW_BYTES_REMAINING;
+    }
+
+    private int status(int command, int statusWord, byte[] response, int dataLength) {
+        lastCommand = command;
+        lastStatus = statusWord;
+        ByteUtils.writeU16(response, dataLength, statusWord);
+        return dataLength + 2;
+    }
+
+    private static boolean startsWith(byte[] command, int length, byte[] match) {
+        return length >= match.length && ByteUtils.regionEquals(command, 0, match, 0, match.length);
+    }
+
+    private static boolean equals(byte[] command, int length, byte[] match) {
+        return length == match.length && ByteUtils.regionEquals(command, 0, match, 0, match.length);
+    }
+
+}
@@ -0,0 +1,132 @@
+package studio.bb.rnlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of command APDUs sent back to back to a card, so a reader exchange
+ * takes a single call rather than one round trip per command.
+ * <p>
+ * When following responses, a {@code 61xx} status is answered with GET RESPONSE
+ * until the card has sent all its data, and a {@code 6Cxx} status resends the
+ * command once with the Le the card asked for. The response recorded for the
+ * command then holds all the data followed by the last status word.
+ */
+public class ApduScript {
+
+    // Bounds the GET RESPONSE exchanges of a single command
+    public static final int MAX_RESPONSE_ROUNDS = 64;
+
+    private static final byte INS_GET_RESPONSE = (byte) 0xC0;
+
+    public static class Result {
+        // One response per command that was sent, in order
+        public final List<byte[]> responses;
+        // Why the script stopped early, null when every command was sent
+        public final String error;
+
+        Result(List<byte[]> responses, String error) {
+            this.responses = Collections.unmodifiableList(responses);
+            this.error = error;
+        }
+    }
+
+    private final List<byte[]> commands;
+    private final boolean followResponses;
+    private final boolean stopOnError;
+
+    /**
+     * @param followResponses Answer 61xx and 6Cxx statuses, see the class documentation
+     * @param stopOnError     Stop after the first response whose status is not 9000
+     */
+    public ApduScript(List<byte[]> commands, boolean followResponses, boolean stopOnError) {
+        for (byte[] command : commands) {
+            if (command.length < 4) {
+                throw new IllegalArgumentException("Command APDUs need at least 4 bytes");
+            }
+        }
+        this.commands = new ArrayList<>(commands);
+        this.followResponses = followResponses;
+        this.stopOnError = stopOnError;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    /**
+     * Sends the commands in order. A transport failure ends the script and is
+     * reported in {@link Result#error} with the responses received so far.
+     */
+    public Result run(ApduTransport transport) {
+        List<byte[]> responses = new ArrayList<>(commands.size());
+        for (byte[] command : commands) {
+            byte[] response;
+            try {
+                response = followResponses ? exchange(transport, command) : transport.transceive(command);
+            } catch (IOException e) {
+                return new Result(responses, e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+            if (response == null) {
+                return new Result(responses, "No response");
+            }
+            responses.add(response);
+            if (stopOnError && statusWord(response) != ApduEngine.SW_OK) {
+                return new Result(responses, "Command " + responses.size() + " failed");
+            }
+        }
+        return new Result(responses, null);
+    }
+
+    private static byte[] exchange(ApduTransport transport, byte[] command) throws IOException {
+        byte[] response = transport.transceive(command);
+        if (response != null && response.length == 2 && statusWord(response) >> 8 == ApduEngine.SW_WRONG_LE >> 8) {
+            response = transport.transceive(withLe(command, response[1]));
+        }
+        if (response == null || !hasBytesRemaining(response)) {
+            return response;
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] getResponse = { (byte) (command[0] & 0x03), INS_GET_RESPONSE, 0, 0, 0 };
+        for (int round = 0; round < MAX_RESPONSE_ROUNDS; round++) {
+            data.write(response, 0, response.length - 2);
+            getResponse[4] = response[response.length - 1];
+            response = transport.transceive(getResponse);
+            if (response == null || response.length < 2) {
+                throw new IOException("Invalid GET RESPONSE answer");
+            }
+            if (!hasBytesRemaining(response)) {
+                break;
+            }
+        }
+        data.write(response, 0, response.length);
+        return data.toByteArray();
+    }
+
+    /**
+     * @return The short command with its Le field set, added when it had none
+     */
+    static byte[] withLe(byte[] command, byte le) {
+        boolean hasLe = command.length == 5 || (command.length > 5 && command.length == 6 + (command[4] & 0xFF));
+        byte[] resent = new byte[hasLe ? command.length : command.length + 1];
+        System.arraycopy(command, 0, resent, 0, hasLe ? command.length - 1 : command.length);
+        resent[resent.length - 1] = le;
+        return resent;
+    }
+
+    private static boolean hasBytesRemaining(byte[] response) {
+        return (statusWord(response) & 0xFF00) == ApduEngine.SW_BYTES_REMAINING;
+    }
+
+    private static int statusWord(byte[] response) {
+        if (response.length < 2) {
+            return -1;
+        }
+        return ((response[response.length - 2] & 0xFF) << 8) | (response[response.length - 1] & 0xFF);
+    }
+
+}
@@ -0,0 +1,16 @@
+package studio.bb.rnlib;
+
+import java.io.IOException;
+
+/**
+ * Exchanges APDUs with a card in the field, for {@link ApduScript}
+ */
+public interface ApduTransport {
+
+    /**
+     * @return The response APDU, data followed by the status word
+     * @throws IOException When the card left the field or did not answer in time
+     */
+    byte[] transceive(byte[] command) throws IOException;
+
+}
@@ -0,0 +1,318 @@
+package studio.bb.rnlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Card content and toasts shared between processes through a memory-mapped file,
+ * free of any Android dependency.
+ * <p>
+ * The file starts with a {@link #HEADER_SIZE} byte header:
+ * <pre>
+ *  0  magic (int)
+ *  4  sequence (int), odd while a write is in progress
+ *  8  version (long), 0 until the first write
+ * 16  CRC32 of the payload (int)
+ * 20  payload length (int)
+ * 32  {@link #CONFIG_SLOTS} configuration versions (long)
+ * 96  metrics sequence (int), odd while the metrics are written
+ * 104 {@link #METRIC_SLOTS} metrics (long)
+ * </pre>
+ * followed by the payload: three length-prefixed UTF-8 strings, a length of -1
+ * standing for null.
+ * <p>
+ * Writers serialise on a file lock and bump the sequence around the update.
+ * Readers follow the seqlock protocol: they retry while the sequence is odd or
+ * changed during the read, and verify the checksum since nothing orders the
+ * stores of another process. Checking for a change only reads the version, and
+ * a state is decoded once per version.
+ * <p>
+ * The configuration versions let processes tell when configuration they cached,
+ * kept elsewhere, was changed by another process: the one changing it bumps the
+ * version of its slot.
+ * <p>
+ * The metrics are counters published by a single process, the one answering
+ * readers, for the others to read. They have a seqlock of their own and are
+ * written without the file lock, so publishing them costs a few stores.
+ */
+public class CardStateStore {
+
+    public static final int CONFIG_SLOTS = 8;
+    public static final int METRIC_SLOTS = 16;
+    public static final int HEADER_SIZE = 104 + 8 * METRIC_SLOTS;
+    public static final int FILE_SIZE = 128 * 1024;
+
+    private static final int MAGIC = 0x524E4833; // RNH3
+    private static final int OFFSET_SEQUENCE = 4;
+    private static final int OFFSET_VERSION = 8;
+    private static final int OFFSET_CRC = 16;
+    private static final int OFFSET_LENGTH = 20;
+    private static final int OFFSET_CONFIG_VERSIONS = 32;
+    private static final int OFFSET_METRICS_SEQUENCE = 96;
+    private static final int OFFSET_METRICS = 104;
+    private static final int MAX_READ_ATTEMPTS = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class State {
+        public final long version;
+        public final String idTag;
+        public final String successToast;
+        public final String errorToast;
+
+        State(long version, String idTag, String successToast, String errorToast) {
+            this.version = version;
+            this.idTag = idTag;
+            this.successToast = successToast;
+            this.errorToast = errorToast;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private byte[] payload = new byte[256];
+    private State state = null;
+
+    public CardStateStore(File path) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        if (file.length() < FILE_SIZE) {
+            file.setLength(FILE_SIZE);
+        }
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        int magic = buffer.getInt(0);
+        if (magic != 0 && magic != MAGIC) {
+            clearHeader();
+        }
+    }
+
+    // Left by an earlier layout, whose payload overlaps the metrics
+    private void clearHeader() throws IOException {
+        FileLock lock = file.getChannel().lock();
+        try {
+            int magic = buffer.getInt(0);
+            if (magic != 0 && magic != MAGIC) {
+                for (int offset = 0; offset < HEADER_SIZE; offset += 4) {
+                    buffer.putInt(offset, 0);
+                }
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * @return The version of the stored state, 0 if it was never written
+     */
+    public long getVersion() {
+        return buffer.getInt(0) == MAGIC ? buffer.getLong(OFFSET_VERSION) : 0;
+    }
+
+    /**
+     * @return The version of a configuration slot, 0 until it is first bumped
+     */
+    public long getConfigVersion(int slot) {
+        return buffer.getLong(configOffset(slot));
+    }
+
+    /**
+     * Tells every process mapping the file that the configuration of a slot changed
+     *
+     * @return The new version of the slot
+     */
+    public synchronized long bumpConfigVersion(int slot) throws IOException {
+        int offset = configOffset(slot);
+        FileLock lock = file.getChannel().lock();
+        try {
+            long version = buffer.getLong(offset) + 1;
+            buffer.putLong(offset, version);
+            return version;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Publishes the metrics, only ever called from one process at a time
+     *
+     * @param values Up to {@link #METRIC_SLOTS} values, the remaining slots are left as they are
+     */
+    public synchronized void writeMetrics(long[] values) {
+        if (values.length > METRIC_SLOTS) {
+            throw new IllegalArgumentException("At most " + METRIC_SLOTS + " metrics");
+        }
+        // A writer that died mid-update leaves the sequence odd
+        int sequence = (buffer.getInt(OFFSET_METRICS_SEQUENCE) | 1) + 2;
+        buffer.putInt(OFFSET_METRICS_SEQUENCE, sequence);
+        for (int i = 0; i < values.length; i++) {
+            buffer.putLong(OFFSET_METRICS + 8 * i, values[i]);
+        }
+        buffer.putInt(OFFSET_METRICS_SEQUENCE, sequence + 1);
+    }
+
+    /**
+     * Reads the metrics into the destination, up to {@link #METRIC_SLOTS} values
+     *
+     * @return False if they were never published or no consistent copy could be read
+     */
+    public synchronized boolean readMetrics(long[] destination) {
+        int count = Math.min(destination.length, METRIC_SLOTS);
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int sequence = buffer.getInt(OFFSET_METRICS_SEQUENCE);
+            if (sequence == 0) {
+                return false;
+            }
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                destination[i] = buffer.getLong(OFFSET_METRICS + 8 * i);
+            }
+            if (buffer.getInt(OFFSET_METRICS_SEQUENCE) == sequence) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Publishes a new state to every process mapping the file
+     *
+     * @return The version of the new state
+     */
+    public synchronized long write(String idTag, String successToast, String errorToast) throws IOException {
+        byte[] id = encode(idTag);
+        byte[] success = encode(successToast);
+        byte[] error = encode(errorToast);
+        int length = 12 + length(id) + length(success) + length(error);
+        if (HEADER_SIZE + length > FILE_SIZE) {
+            throw new IllegalArgumentException("Card state exceeds " + (FILE_SIZE - HEADER_SIZE) + " bytes");
+        }
+
+        FileLock lock = file.getChannel().lock();
+        try {
+            boolean initialised = buffer.getInt(0) == MAGIC;
+            int sequence = initialised ? buffer.getInt(OFFSET_SEQUENCE) : 0;
+            long version = (initialised ? buffer.getLong(OFFSET_VERSION) : 0) + 1;
+            // A writer that died mid-update leaves the sequence odd
+            sequence = (sequence | 1) + 2;
+            buffer.putInt(OFFSET_SEQUENCE, sequence);
+            buffer.putInt(0, MAGIC);
+
+            ByteBuffer out = buffer.duplicate();
+            out.position(HEADER_SIZE);
+            put(out, id);
+            put(out, success);
+            put(out, error);
+            crc.reset();
+            crc.update(payload(out, length), 0, length);
+
+            buffer.putInt(OFFSET_CRC, (int) crc.getValue());
+            buffer.putInt(OFFSET_LENGTH, length);
+            buffer.putLong(OFFSET_VERSION, version);
+            buffer.putInt(OFFSET_SEQUENCE, sequence + 1);
+            state = new State(version, idTag, successToast, errorToast);
+            return version;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * @return The current state, decoded again only when its version changed, or
+     * null if it was never written or no consistent state could be read
+     */
+    public synchronized State read() {
+        if (state != null && state.version == getVersion()) {
+            return state;
+        }
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            int sequence = buffer.getInt(OFFSET_SEQUENCE);
+            if (buffer.getInt(0) != MAGIC) {
+                return null;
+            }
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            long version = buffer.getLong(OFFSET_VERSION);
+            int checksum = buffer.getInt(OFFSET_CRC);
+            int length = buffer.getInt(OFFSET_LENGTH);
+            if (length < 12 || HEADER_SIZE + length > FILE_SIZE) {
+                continue;
+            }
+            ByteBuffer in = buffer.duplicate();
+            in.position(HEADER_SIZE);
+            byte[] bytes = payload(in, length);
+            if (buffer.getInt(OFFSET_SEQUENCE) != sequence) {
+                continue;
+            }
+            crc.reset();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                continue;
+            }
+            ByteBuffer decoder = ByteBuffer.wrap(bytes, 0, length);
+            state = new State(version, get(decoder), get(decoder), get(decoder));
+            return state;
+        }
+        return state;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static int configOffset(int slot) {
+        if (slot < 0 || slot >= CONFIG_SLOTS) {
+            throw new IllegalArgumentException("No configuration slot " + slot);
+        }
+        return OFFSET_CONFIG_VERSIONS + 8 * slot;
+    }
+
+    // Copies the payload region into the scratch array
+    private byte[] payload(ByteBuffer source, int length) {
+        if (payload.length < length) {
+            payload = new byte[Math.max(length, payload.length * 2)];
+        }
+        source.position(HEADER_SIZE);
+        source.get(payload, 0, length);
+        return payload;
+    }
+
+    private static byte[] encode(String value) {
+        return value != null ? value.getBytes(UTF_8) : null;
+    }
+
+    private static int length(byte[] value) {
+        return value != null ? value.length : 0;
+    }
+
+    private static void put(ByteBuffer out, byte[] value) {
+        if (value == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(value.length);
+            out.put(value);
+        }
+    }
+
+    private static String get(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+}
@@ -0,0 +1,229 @@
+package studio.bb.rnlib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable table of the ISO 7816-4 elementary files served next to the NFC
+ * Forum CC and NDEF files, free of any Android dependency.
+ * <p>
+ * Files are either transparent (READ BINARY) or linear variable record files
+ * (READ RECORD). Their FCP templates are encoded once when the table is built,
+ * and SELECT resolves a file identifier through an open addressing table over
+ * the primitive FIDs, so answering a command neither encodes nor allocates.
+ */
+public final class FileSystem {
+
+    public static final int MAX_TRANSPARENT_SIZE = 0x7FFF;
+    public static final int MAX_RECORD_SIZE = 0xFF;
+    public static final int MAX_RECORDS = 0xFE;
+    public static final int MAX_SFI = 30;
+
+    public static final FileSystem EMPTY = new Builder().build();
+
+    public static final class ElementaryFile {
+        public final int fid;
+        // Short EF identifier, 0 when the file has none
+        public final int sfi;
+        // Content of a transparent file, null for a record file
+        public final byte[] content;
+        // Records of a record file, record number n at index n - 1, null for a transparent file
+        public final byte[][] records;
+        // FCP template followed by 9000, the response to a SELECT asking for it
+        final byte[] fci;
+
+        ElementaryFile(int fid, int sfi, byte[] content, byte[][] records) {
+            this.fid = fid;
+            this.sfi = sfi;
+            this.content = content;
+            this.records = records;
+            this.fci = encodeFci(this);
+        }
+
+        public boolean isRecordFile() {
+            return records != null;
+        }
+    }
+
+    public static final class Builder {
+        private final List<ElementaryFile> files = new ArrayList<>();
+
+        public Builder addTransparent(int fid, int sfi, byte[] content) {
+            if (content.length > MAX_TRANSPARENT_SIZE) {
+                throw new IllegalArgumentException("File " + fidToString(fid) + " exceeds " + MAX_TRANSPARENT_SIZE + " bytes");
+            }
+            return add(new ElementaryFile(checkFid(fid), checkSfi(fid, sfi), content.clone(), null));
+        }
+
+        public Builder addRecords(int fid, int sfi, List<byte[]> records) {
+            if (records.isEmpty() || records.size() > MAX_RECORDS) {
+                throw new IllegalArgumentException("File " + fidToString(fid) + " must hold 1 to " + MAX_RECORDS + " records");
+            }
+            byte[][] copy = new byte[records.size()][];
+            for (int i = 0; i < copy.length; i++) {
+                if (records.get(i).length > MAX_RECORD_SIZE) {
+                    throw new IllegalArgumentException("Record " + (i + 1) + " of file " + fidToString(fid)
+                            + " exceeds " + MAX_RECORD_SIZE + " bytes");
+                }
+                copy[i] = records.get(i).clone();
+            }
+            return add(new ElementaryFile(checkFid(fid), checkSfi(fid, sfi), null, copy));
+        }
+
+        public FileSystem build() {
+            return new FileSystem(files.toArray(new ElementaryFile[0]));
+        }
+
+        private Builder add(ElementaryFile file) {
+            for (ElementaryFile other : files) {
+                if (other.fid == file.fid) {
+                    throw new IllegalArgumentException("Duplicate file " + fidToString(file.fid));
+                }
+                if (file.sfi != 0 && other.sfi == file.sfi) {
+                    throw new IllegalArgumentException("Duplicate short file identifier " + file.sfi);
+                }
+            }
+            files.add(file);
+            return this;
+        }
+
+        private static int checkFid(int fid) {
+            // MF, the reserved identifiers and the NFC Forum CC and NDEF files
+            if (fid < 0 || fid > 0xFFFF || fid == 0x3F00 || fid == 0x3FFF || fid == 0xFFFF
+                    || fid == 0xE103 || fid == 0xE104) {
+                throw new IllegalArgumentException("Invalid file identifier " + fidToString(fid));
+            }
+            return fid;
+        }
+
+        private static int checkSfi(int fid, int sfi) {
+            if (sfi < 0 || sfi > MAX_SFI) {
+                throw new IllegalArgumentException("Invalid short file identifier " + sfi + " for file " + fidToString(fid));
+            }
+            return sfi;
+        }
+    }
+
+    private final ElementaryFile[] files;
+    // Open addressing index from FID to position in files, -1 marks a free slot
+    private final int[] keys;
+    private final int[] values;
+    private final int shift;
+    // Position in files by SFI, -1 when unused
+    private final int[] sfiIndex = new int[MAX_SFI + 1];
+
+    private FileSystem(ElementaryFile[] files) {
+        this.files = files;
+        int capacity = 4;
+        while (capacity < files.length * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        for (int i = 0; i < capacity; i++) {
+            keys[i] = -1;
+        }
+        for (int i = 0; i <= MAX_SFI; i++) {
+            sfiIndex[i] = -1;
+        }
+        for (int i = 0; i < files.length; i++) {
+            int slot = slot(files[i].fid);
+            while (keys[slot] != -1) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            keys[slot] = files[i].fid;
+            values[slot] = i;
+            if (files[i].sfi != 0) {
+                sfiIndex[files[i].sfi] = i;
+            }
+        }
+    }
+
+    public int size() {
+        return files.length;
+    }
+
+    public ElementaryFile get(int index) {
+        return files[index];
+    }
+
+    /**
+     * @return The index of the file with this identifier, or -1
+     */
+    public int indexOf(int fid) {
+        int mask = keys.length - 1;
+        for (int slot = slot(fid); ; slot = (slot + 1) & mask) {
+            int key = keys[slot];
+            if (key == fid) {
+                return values[slot];
+            }
+            if (key == -1) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return The index of the file with this short file identifier, or -1
+     */
+    public int indexOfSfi(int sfi) {
+        return sfi > 0 && sfi <= MAX_SFI ? sfiIndex[sfi] : -1;
+    }
+
+    private int slot(int fid) {
+        return (fid * 0x9E3779B1) >>> shift;
+    }
+
+    private static byte[] encodeFci(ElementaryFile file) {
+        int size = 0;
+        int maxRecordSize = 0;
+        if (file.records != null) {
+            for (byte[] record : file.records) {
+                size += record.length;
+                maxRecordSize = Math.max(maxRecordSize, record.length);
+            }
+        } else {
+            size = file.content.length;
+        }
+        size = Math.min(size, 0xFFFF);
+
+        byte[] descriptor = file.records != null
+                // Linear structure, variable size records: descriptor, data coding, max record size, record count
+                ? new byte[] { 0x04, 0x21, (byte) maxRecordSize, (byte) file.records.length }
+                // Transparent structure: descriptor, data coding
+                : new byte[] { 0x01, 0x21 };
+        int templateLength = 4 + 2 + descriptor.length + 4 + (file.sfi != 0 ? 3 : 0);
+
+        byte[] fci = new byte[2 + templateLength + 2];
+        int i = 0;
+        fci[i++] = 0x62; // FCP template
+        fci[i++] = (byte) templateLength;
+        fci[i++] = (byte) 0x80; // Number of data bytes in the file
+        fci[i++] = 0x02;
+        fci[i++] = (byte) (size >> 8);
+        fci[i++] = (byte) size;
+        fci[i++] = (byte) 0x82; // File descriptor
+        fci[i++] = (byte) descriptor.length;
+        System.arraycopy(descriptor, 0, fci, i, descriptor.length);
+        i += descriptor.length;
+        fci[i++] = (byte) 0x83; // File identifier
+        fci[i++] = 0x02;
+        fci[i++] = (byte) (file.fid >> 8);
+        fci[i++] = (byte) file.fid;
+        if (file.sfi != 0) {
+            fci[i++] = (byte) 0x88; // Short EF identifier
+            fci[i++] = 0x01;
+            fci[i++] = (byte) (file.sfi << 3);
+        }
+        fci[i++] = (byte) 0x90;
+        fci[i] = 0x00;
+        return fci;
+    }
+
+    static String fidToString(int fid) {
+        return String.format(Locale.US, "%04X", fid & 0xFFFF);
+    }
+
+}
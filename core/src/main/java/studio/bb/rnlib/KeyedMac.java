@@ -0,0 +1,131 @@
+package studio.bb.rnlib;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA256 (RFC 2104) or AES-CMAC (NIST SP 800-38B, RFC 4493) over the
+ * concatenation of two byte ranges, free of any Android dependency.
+ * <p>
+ * The Mac or Cipher is initialised once per key and the CMAC subkeys are derived
+ * once, so computing a MAC writes into the caller's buffer without allocating.
+ * Not thread safe.
+ */
+public final class KeyedMac {
+
+    public static final String HMAC_SHA256 = "HMAC-SHA256";
+    public static final String AES_CMAC = "AES-CMAC";
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final String algorithm;
+    private final Mac hmac;
+    private final Cipher aes;
+    private final byte[] k1 = new byte[BLOCK_SIZE];
+    private final byte[] k2 = new byte[BLOCK_SIZE];
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final byte[] state = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+
+    public KeyedMac(String algorithm, byte[] key) throws GeneralSecurityException {
+        if (HMAC_SHA256.equals(algorithm)) {
+            hmac = Mac.getInstance("HmacSHA256");
+            hmac.init(new SecretKeySpec(key, "HmacSHA256"));
+            aes = null;
+        } else if (AES_CMAC.equals(algorithm)) {
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalArgumentException("AES-CMAC keys must be 16, 24 or 32 bytes long");
+            }
+            aes = Cipher.getInstance("AES/ECB/NoPadding");
+            aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+            // Subkey generation, SP 800-38B section 6.1
+            byte[] l = aes.doFinal(new byte[BLOCK_SIZE]);
+            shiftLeft(l, k1);
+            shiftLeft(k1, k2);
+            hmac = null;
+        } else {
+            throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+        }
+        this.algorithm = algorithm;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return The MAC length in bytes
+     */
+    public int getLength() {
+        return hmac != null ? hmac.getMacLength() : BLOCK_SIZE;
+    }
+
+    /**
+     * Writes MAC(first || second) into the destination at offset 0
+     *
+     * @return The number of bytes written
+     */
+    public int compute(byte[] first, int firstOffset, int firstLength,
+                       byte[] second, int secondOffset, int secondLength, byte[] destination) throws GeneralSecurityException {
+        if (hmac != null) {
+            hmac.update(first, firstOffset, firstLength);
+            hmac.update(second, secondOffset, secondLength);
+            hmac.doFinal(destination, 0);
+            return hmac.getMacLength();
+        }
+
+        blockLength = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            state[i] = 0;
+        }
+        cmacUpdate(first, firstOffset, firstLength);
+        cmacUpdate(second, secondOffset, secondLength);
+        cmacFinal(destination);
+        return BLOCK_SIZE;
+    }
+
+    private void cmacUpdate(byte[] data, int offset, int length) throws GeneralSecurityException {
+        for (int i = 0; i < length; i++) {
+            if (blockLength == BLOCK_SIZE) {
+                // Only encrypt a full block once we know it is not the last one
+                for (int j = 0; j < BLOCK_SIZE; j++) {
+                    state[j] ^= block[j];
+                }
+                aes.update(state, 0, BLOCK_SIZE, state, 0);
+                blockLength = 0;
+            }
+            block[blockLength++] = data[offset + i];
+        }
+    }
+
+    private void cmacFinal(byte[] destination) throws GeneralSecurityException {
+        byte[] subkey = k1;
+        if (blockLength < BLOCK_SIZE) {
+            block[blockLength++] = (byte) 0x80;
+            while (blockLength < BLOCK_SIZE) {
+                block[blockLength++] = 0;
+            }
+            subkey = k2;
+        }
+        for (int j = 0; j < BLOCK_SIZE; j++) {
+            state[j] ^= block[j] ^ subkey[j];
+        }
+        aes.update(state, 0, BLOCK_SIZE, destination, 0);
+    }
+
+    private static void shiftLeft(byte[] source, byte[] destination) {
+        int carry = 0;
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            int value = source[i] & 0xFF;
+            destination[i] = (byte) ((value << 1) | carry);
+            carry = value >>> 7;
+        }
+        if ((source[0] & 0x80) != 0) {
+            destination[BLOCK_SIZE - 1] ^= (byte) 0x87;
+        }
+    }
+
+}
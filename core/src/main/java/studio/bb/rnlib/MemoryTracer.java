@@ -0,0 +1,98 @@
+package studio.bb.rnlib;
+
+/**
+ * Records spans into preallocated arrays, for tests and for inspecting a few taps
+ * on a device. Spans opened once the capacity is reached are dropped.
+ * <p>
+ * Not thread safe, read the spans from the thread that traced them or after it
+ * finished.
+ */
+public class MemoryTracer implements Tracer {
+
+    private static final int MAX_DEPTH = 32;
+
+    private final String[] names;
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] depths;
+    private int size = 0;
+
+    // Indexes of the open spans, -1 for a dropped span
+    private final int[] open = new int[MAX_DEPTH];
+    private int depth = 0;
+
+    public MemoryTracer(int capacity) {
+        names = new String[capacity];
+        starts = new long[capacity];
+        ends = new long[capacity];
+        depths = new int[capacity];
+    }
+
+    @Override
+    public void begin(String name) {
+        int index = -1;
+        if (size < names.length && depth < MAX_DEPTH) {
+            index = size++;
+            names[index] = name;
+            depths[index] = depth;
+            ends[index] = -1;
+            starts[index] = System.nanoTime();
+        }
+        if (depth < MAX_DEPTH) {
+            open[depth] = index;
+        }
+        depth++;
+    }
+
+    @Override
+    public void end() {
+        if (depth == 0) {
+            return;
+        }
+        depth--;
+        if (depth < MAX_DEPTH && open[depth] >= 0) {
+            ends[open[depth]] = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return The number of recorded spans, in the order they were opened
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return The number of spans enclosing the span
+     */
+    public int getDepth(int index) {
+        return depths[index];
+    }
+
+    public long getStartNanos(int index) {
+        return starts[index];
+    }
+
+    /**
+     * @return The duration of the span, -1 while it is open
+     */
+    public long getDurationNanos(int index) {
+        return ends[index] < 0 ? -1 : ends[index] - starts[index];
+    }
+
+    /**
+     * Drops the recorded spans, spans still open are not closed
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            names[i] = null;
+        }
+        size = 0;
+        depth = 0;
+    }
+
+}
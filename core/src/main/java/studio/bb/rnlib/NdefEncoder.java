@@ -0,0 +1,137 @@
+package studio.bb.rnlib;
+
+/**
+ * Encodes the NDEF file of a Type 4 Tag holding a single NFC Forum Text record,
+ * byte for byte what <code>android.nfc.NdefRecord#toByteArray()</code> produces,
+ * preceded by the two byte NLEN field.
+ * <p>
+ * Text is encoded to UTF-8 directly into the destination, so encoding into a
+ * caller supplied buffer does not allocate.
+ */
+public final class NdefEncoder {
+
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+    private static final int TNF_WELL_KNOWN = 0x01;
+    private static final byte RTD_TEXT = 0x54;
+
+    private NdefEncoder() {
+    }
+
+    /**
+     * @return The size of the NDEF file, NLEN included
+     */
+    public static int textFileLength(String language, CharSequence text, byte[] id) {
+        int payloadLength = 1 + (language.length() & 0x3F) + utf8Length(text);
+        return 2 + textRecordLength(payloadLength, id);
+    }
+
+    public static byte[] encodeTextFile(String language, CharSequence text, byte[] id) {
+        byte[] file = new byte[textFileLength(language, text, id)];
+        encodeTextFile(language, text, id, file, 0);
+        return file;
+    }
+
+    /**
+     * Writes the NDEF file into the destination, which must hold
+     * {@link #textFileLength(String, CharSequence, byte[])} bytes from offset
+     *
+     * @return The index after the last byte written
+     */
+    public static int encodeTextFile(String language, CharSequence text, byte[] id, byte[] destination, int offset) {
+        int languageLength = language.length() & 0x3F;
+        int payloadLength = 1 + languageLength + utf8Length(text);
+        int messageLength = textRecordLength(payloadLength, id);
+        boolean shortRecord = payloadLength < 256;
+
+        destination[offset++] = (byte) (messageLength >>> 8);
+        destination[offset++] = (byte) messageLength;
+
+        int header = FLAG_MB | FLAG_ME | TNF_WELL_KNOWN;
+        if (shortRecord) {
+            header |= FLAG_SR;
+        }
+        if (id.length > 0) {
+            header |= FLAG_IL;
+        }
+        destination[offset++] = (byte) header;
+        destination[offset++] = 1; // type length
+        if (shortRecord) {
+            destination[offset++] = (byte) payloadLength;
+        } else {
+            destination[offset++] = (byte) (payloadLength >>> 24);
+            destination[offset++] = (byte) (payloadLength >>> 16);
+            destination[offset++] = (byte) (payloadLength >>> 8);
+            destination[offset++] = (byte) payloadLength;
+        }
+        if (id.length > 0) {
+            destination[offset++] = (byte) id.length;
+        }
+        destination[offset++] = RTD_TEXT;
+        System.arraycopy(id, 0, destination, offset, id.length);
+        offset += id.length;
+
+        // Status byte: UTF-8, language code length
+        destination[offset++] = (byte) languageLength;
+        for (int i = 0; i < languageLength; i++) {
+            destination[offset++] = (byte) language.charAt(i);
+        }
+        return writeUtf8(text, destination, offset);
+    }
+
+    private static int textRecordLength(int payloadLength, byte[] id) {
+        int length = 2 + (payloadLength < 256 ? 1 : 4) + 1 + id.length + payloadLength;
+        return id.length > 0 ? length + 1 : length;
+    }
+
+    static int utf8Length(CharSequence text) {
+        int length = 0;
+        int count = text.length();
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Malformed surrogates are replaced by '?', as String.getBytes does
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    static int writeUtf8(CharSequence text, byte[] destination, int offset) {
+        int count = text.length();
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                destination[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                destination[offset++] = (byte) (0xC0 | (c >> 6));
+                destination[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                destination[offset++] = (byte) (0xF0 | (codePoint >> 18));
+                destination[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                destination[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                destination[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                destination[offset++] = (byte) '?';
+            } else {
+                destination[offset++] = (byte) (0xE0 | (c >> 12));
+                destination[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                destination[offset++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return offset;
+    }
+
+}
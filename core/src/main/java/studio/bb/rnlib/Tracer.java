@@ -0,0 +1,36 @@
+package studio.bb.rnlib;
+
+/**
+ * Receives named spans around the stages of answering an APDU. Spans nest and
+ * are closed innermost first, on the thread that opened them.
+ * <p>
+ * Span names are constants so opening a span never allocates, and {@link #NONE}
+ * does nothing at all: the instrumentation stays in release builds.
+ */
+public interface Tracer {
+
+    String SPAN_APDU = "rnhce:apdu";
+    String SPAN_ID_LOOKUP = "rnhce:idLookup";
+    String SPAN_NDEF_ENCODING = "rnhce:ndefEncoding";
+    String SPAN_RESPONSE = "rnhce:response";
+    String SPAN_TOAST = "rnhce:toast";
+    String SPAN_LOG = "rnhce:log";
+
+    Tracer NONE = new Tracer() {
+        @Override
+        public void begin(String name) {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    void begin(String name);
+
+    /**
+     * Closes the most recently opened span
+     */
+    void end();
+
+}
@@ -0,0 +1,155 @@
+package studio.bb.rnlib;
+
+/**
+ * Bounds the work a single reader can make the card do. A broken or hostile
+ * reader looping SELECT/READ BINARY is answered normally until it exhausts either
+ * the budget of its session or the budget of the current time window; from then on
+ * {@link #admit(long)} refuses every APDU until the session ends or the window
+ * rolls over, so the caller can answer from a precomputed error without running
+ * the command flow.
+ * <p>
+ * Not thread safe, it is meant to be driven by the thread answering the APDUs.
+ */
+public class WorkBudget {
+
+    /**
+     * Limits of a budget, a limit of 0 disables it
+     */
+    public static class Config {
+        public final int maxSessionApdus;
+        public final int maxSessionBytes;
+        public final int maxSessionInvalid;
+        public final long windowMs;
+        public final int maxWindowApdus;
+        public final int maxWindowBytes;
+        public final int maxWindowInvalid;
+
+        public Config(int maxSessionApdus, int maxSessionBytes, int maxSessionInvalid, long windowMs,
+                      int maxWindowApdus, int maxWindowBytes, int maxWindowInvalid) {
+            if (maxSessionApdus < 0 || maxSessionBytes < 0 || maxSessionInvalid < 0 || windowMs < 0
+                    || maxWindowApdus < 0 || maxWindowBytes < 0 || maxWindowInvalid < 0) {
+                throw new IllegalArgumentException("Budget limits must not be negative");
+            }
+            if (windowMs == 0 && (maxWindowApdus > 0 || maxWindowBytes > 0 || maxWindowInvalid > 0)) {
+                throw new IllegalArgumentException("Window limits need a window length");
+            }
+            this.maxSessionApdus = maxSessionApdus;
+            this.maxSessionBytes = maxSessionBytes;
+            this.maxSessionInvalid = maxSessionInvalid;
+            this.windowMs = windowMs;
+            this.maxWindowApdus = maxWindowApdus;
+            this.maxWindowBytes = maxWindowBytes;
+            this.maxWindowInvalid = maxWindowInvalid;
+        }
+    }
+
+    /**
+     * No limits at all
+     */
+    public static final Config UNLIMITED = new Config(0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * Generous enough for a Type 4 Tag read with a few extra files and retries,
+     * while a reader stuck in a loop is cut off within a fraction of a second.
+     */
+    public static final Config RECOMMENDED = new Config(256, 64 * 1024, 16, 10000, 1024, 256 * 1024, 64);
+
+    /**
+     * Used until limits are set: none, so existing integrations keep answering
+     * every APDU until they opt in
+     */
+    public static final Config DEFAULT = UNLIMITED;
+
+    private Config config;
+
+    private int sessionApdus = 0;
+    private int sessionBytes = 0;
+    private int sessionInvalid = 0;
+    private boolean sessionExhausted = false;
+
+    private long windowStart = 0;
+    private int windowApdus = 0;
+    private int windowBytes = 0;
+    private int windowInvalid = 0;
+    private boolean windowExhausted = false;
+
+    public WorkBudget(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Takes effect for the next APDU, the counters are kept
+     */
+    public void setConfig(Config config) {
+        this.config = config;
+        update();
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * @param now Monotonic time in milliseconds
+     * @return False when a budget is exhausted and the APDU should be refused
+     */
+    public boolean admit(long now) {
+        if (config.windowMs > 0 && now - windowStart >= config.windowMs) {
+            windowStart = now;
+            windowApdus = 0;
+            windowBytes = 0;
+            windowInvalid = 0;
+            windowExhausted = false;
+        }
+        return !sessionExhausted && !windowExhausted;
+    }
+
+    /**
+     * Charges an answered APDU to the session and the window
+     *
+     * @param responseLength The number of bytes sent back
+     * @param invalid        True when the command was rejected
+     */
+    public void record(int responseLength, boolean invalid) {
+        sessionApdus++;
+        sessionBytes += responseLength;
+        windowApdus++;
+        windowBytes += responseLength;
+        if (invalid) {
+            sessionInvalid++;
+            windowInvalid++;
+        }
+        update();
+    }
+
+    private void update() {
+        sessionExhausted = exceeded(sessionApdus, config.maxSessionApdus)
+                || exceeded(sessionBytes, config.maxSessionBytes)
+                || exceeded(sessionInvalid, config.maxSessionInvalid);
+        windowExhausted = exceeded(windowApdus, config.maxWindowApdus)
+                || exceeded(windowBytes, config.maxWindowBytes)
+                || exceeded(windowInvalid, config.maxWindowInvalid);
+    }
+
+    /**
+     * Starts the budget of a new session, the window keeps running
+     */
+    public void endSession() {
+        sessionApdus = 0;
+        sessionBytes = 0;
+        sessionInvalid = 0;
+        sessionExhausted = false;
+    }
+
+    /**
+     * @return True when the current session or window refuses APDUs
+     */
+    public boolean isExhausted() {
+        return sessionExhausted || windowExhausted;
+    }
+
+    private static boolean exceeded(int count, int limit) {
+        return limit > 0 && count >= limit;
+    }
+
+}
@@ -0,0 +1,327 @@
+/**********************************************************************************
+ *
+ * Copyright (c) 2003, 2004 The Regents of the University of Michigan, Trustees of Indiana University,
+ *                  Board of Trustees of the Leland Stanford, Jr., University, and The MIT Corporation
+ *
+ * Licensed under the Educational Community License Version 1.0 (the "License");
+ * By obtaining, using and/or copying this Original Work, you agree that you have read,
+ * understand, and will comply with the terms and conditions of the Educational Community License.
+ * You may obtain a copy of the License at:
+ *
+ *      http://cvs.sakaiproject.org/licenses/license_1_0.html
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ **********************************************************************************/
+
+package studio.bb.rnlib.utils;
+
+/**
+ * Byte utilities
+ */
+public class ByteUtils {
+
+    final protected static char[] hexArray = "0123456789ABCDEF".toCharArray();
+
+    public static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Does this byte array begin with match array content?
+     * 
+     * @param source
+     *          Byte array to examine
+     * @param match
+     *          Byte array to locate in <code>source</code>
+     * @return true If the starting bytes are equal
+     */
+    public static boolean startsWith(byte[] source, byte[] match) {
+      return startsWith(source, 0, match);
+    }
+  
+    /**
+     * Does this byte array begin with match array content?
+     * 
+     * @param source
+     *          Byte array to examine
+     * @param offset
+     *          An offset into the <code>source</code> array
+     * @param match
+     *          Byte array to locate in <code>source</code>
+     * @return true If the starting bytes are equal
+     */
+    public static boolean startsWith(byte[] source, int offset, byte[] match) {
+  
+      if (match.length > (source.length - offset)) {
+        return false;
+      }
+  
+      for (int i = 0; i < match.length; i++) {
+        if (source[offset + i] != match[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  
+    /**
+     * Does the source array equal the match array?
+     * 
+     * @param source
+     *          Byte array to examine
+     * @param offset
+     *          An offset into the <code>source</code> array
+     * @param match
+     *          Byte array to locate in <code>source</code>
+     * @return true If the two arrays are equal
+     */
+    public static boolean equals(byte[] source, byte[] match) {
+  
+      if (match.length != source.length) {
+        return false;
+      }
+      return startsWith(source, 0, match);
+    }
+  
+    /**
+     * Does the source array region equal the match array region?
+     * 
+     * @param source
+     *          Byte array to examine
+     * @param offset
+     *          An offset into the <code>source</code> array
+     * @param match
+     *          Byte array to compare against
+     * @param matchOffset
+     *          An offset into the <code>match</code> array
+     * @param length
+     *          Number of bytes to compare
+     * @return true If both regions are in bounds and hold the same bytes
+     */
+    public static boolean regionEquals(byte[] source, int offset, byte[] match, int matchOffset, int length) {
+  
+      if (offset < 0 || matchOffset < 0 || length < 0
+          || length > source.length - offset || length > match.length - matchOffset) {
+        return false;
+      }
+  
+      for (int i = 0; i < length; i++) {
+        if (source[offset + i] != match[matchOffset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  
+    /**
+     * Reads an unsigned byte
+     * 
+     * @param source
+     *          Byte array to read from
+     * @param offset
+     *          Index of the byte
+     * @return The value, between 0 and 0xFF
+     */
+    public static int readU8(byte[] source, int offset) {
+      return source[offset] & 0xFF;
+    }
+  
+    /**
+     * Reads a big-endian unsigned 16-bit integer
+     * 
+     * @param source
+     *          Byte array to read from
+     * @param offset
+     *          Index of the most significant byte
+     * @return The value, between 0 and 0xFFFF
+     */
+    public static int readU16(byte[] source, int offset) {
+      return ((source[offset] & 0xFF) << 8) | (source[offset + 1] & 0xFF);
+    }
+  
+    /**
+     * Reads a big-endian unsigned 24-bit integer
+     * 
+     * @param source
+     *          Byte array to read from
+     * @param offset
+     *          Index of the most significant byte
+     * @return The value, between 0 and 0xFFFFFF
+     */
+    public static int readU24(byte[] source, int offset) {
+      return ((source[offset] & 0xFF) << 16) | ((source[offset + 1] & 0xFF) << 8) | (source[offset + 2] & 0xFF);
+    }
+  
+    /**
+     * Writes a big-endian unsigned 16-bit integer
+     * 
+     * @param destination
+     *          Byte array to write to
+     * @param offset
+     *          Index of the most significant byte
+     * @param value
+     *          The value, only its lower 16 bits are written
+     */
+    public static void writeU16(byte[] destination, int offset, int value) {
+      destination[offset] = (byte) (value >>> 8);
+      destination[offset + 1] = (byte) value;
+    }
+  
+    /**
+     * Copies bytes from the source byte array to the destination array
+     * 
+     * @param source
+     *          The source array
+     * @param srcBegin
+     *          Index of the first source byte to copy
+     * @param srcEnd
+     *          Index after the last source byte to copy
+     * @param destination
+     *          The destination array
+     * @param dstBegin
+     *          The starting offset in the destination array
+     */
+    public static void getBytes(byte[] source, int srcBegin, int srcEnd, byte[] destination,
+        int dstBegin) {
+      System.arraycopy(source, srcBegin, destination, dstBegin, srcEnd - srcBegin);
+    }
+  
+    /**
+     * Return a new byte array containing a sub-portion of the source array
+     * 
+     * @param srcBegin
+     *          The beginning index (inclusive)
+     * @param srcEnd
+     *          The ending index (exclusive)
+     * @return The new, populated byte array
+     */
+    public static byte[] subbytes(byte[] source, int srcBegin, int srcEnd) {
+      byte destination[];
+  
+      destination = new byte[srcEnd - srcBegin];
+      getBytes(source, srcBegin, srcEnd, destination, 0);
+  
+      return destination;
+    }
+  
+    /**
+     * Return a new byte array containing a sub-portion of the source array
+     * 
+     * @param srcBegin
+     *          The beginning index (inclusive)
+     * @return The new, populated byte array
+     */
+    public static byte[] subbytes(byte[] source, int srcBegin) {
+      return subbytes(source, srcBegin, source.length);
+    }
+
+    /**
+     * Simple way to output byte[] to hex (my readable preference)
+     * This version quite speedy; originally from: http://stackoverflow.com/a/9855338
+     *
+     * @param bytes yourByteArray
+     * @return string
+     *
+     */
+    public static String bytesToHex(byte[] bytes) {
+        char[] hexChars = new char[bytes.length * 2];
+        for ( int j = 0; j < bytes.length; j++ ) {
+            int v = bytes[j] & 0xFF;
+            hexChars[j * 2] = hexArray[v >>> 4];
+            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+        }
+        return new String(hexChars);
+    }
+
+    /**
+     * Encodes a region of a byte array as upper case hex into a caller supplied buffer
+     *
+     * @param bytes
+     *          The source array
+     * @param offset
+     *          Index of the first byte to encode
+     * @param length
+     *          Number of bytes to encode
+     * @param destination
+     *          The destination buffer, must hold <code>2 * length</code> chars from <code>dstBegin</code>
+     * @param dstBegin
+     *          The starting offset in the destination buffer
+     * @return The index after the last char written
+     */
+    public static int bytesToHex(byte[] bytes, int offset, int length, char[] destination, int dstBegin) {
+        for ( int j = 0; j < length; j++ ) {
+            int v = bytes[offset + j] & 0xFF;
+            destination[dstBegin++] = hexArray[v >>> 4];
+            destination[dstBegin++] = hexArray[v & 0x0F];
+        }
+        return dstBegin;
+    }
+
+    /**
+     * Decodes a hex string, upper or lower case, into a new byte array
+     *
+     * @param hex
+     *          The hex characters, of even length
+     * @return The decoded bytes
+     * @throws IllegalArgumentException If the string has an odd length or a non hex character
+     */
+    public static byte[] hexToBytes(CharSequence hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("Hex string must have an even length: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        hexToBytes(hex, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Decodes a hex string into a caller supplied buffer
+     *
+     * @param hex
+     *          The hex characters, of even length
+     * @param destination
+     *          The destination buffer, must hold <code>hex.length() / 2</code> bytes from <code>dstBegin</code>
+     * @param dstBegin
+     *          The starting offset in the destination buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the string has an odd length or a non hex character
+     */
+    public static int hexToBytes(CharSequence hex, byte[] destination, int dstBegin) {
+        int length = hex.length();
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException("Hex string must have an even length: " + hex);
+        }
+        for ( int j = 0; j < length; j += 2 ) {
+            int high = Character.digit(hex.charAt(j), 16);
+            int low = Character.digit(hex.charAt(j + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex string: " + hex);
+            }
+            destination[dstBegin++] = (byte) ((high << 4) | low);
+        }
+        return length / 2;
+    }
+
+    /**
+     * Left pads the source with zero bytes up to fixedSize
+     *
+     * @param source
+     *          The source array, returned as is if it already has the fixed size
+     * @param fixedSize
+     *          The size of the returned array
+     * @return The padded array
+     */
+    public static byte[] fillByteArrayToFixedDimension(byte[] source, int fixedSize) {
+      if (source.length >= fixedSize) {
+          return source;
+      }
+
+      byte[] filledArray = new byte[fixedSize];
+      System.arraycopy(source, 0, filledArray, fixedSize - source.length, source.length);
+      return filledArray;
+  }
+
+}
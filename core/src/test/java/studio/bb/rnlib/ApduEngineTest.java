@@ -0,0 +1,352 @@
+package studio.bb.rnlib;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives full Type 4 Tag sessions through {@link ApduEngine} and guards the
+ * allocation free steady-state read path.
+ */
+public class ApduEngineTest {
+
+    private static final byte[] SELECT_APPLICATION = ByteUtils.hexToBytes("00A4040007D276000085010100");
+    private static final byte[] SELECT_CAPABILITY_CONTAINER = ByteUtils.hexToBytes("00A4000C02E103");
+    private static final byte[] READ_CAPABILITY_CONTAINER = ByteUtils.hexToBytes("00B000000F");
+    private static final byte[] SELECT_NDEF = ByteUtils.hexToBytes("00A4000C02E104");
+    private static final byte[] READ_NLEN = ByteUtils.hexToBytes("00B0000002");
+
+    private static final byte[] NDEF_ID = { (byte) 0xE1, (byte) 0x04 };
+
+    // Bytes a READ BINARY may allocate on the steady-state path, per APDU
+    private static final long ALLOCATION_BUDGET = 0;
+    private static final int WARMUP_SESSIONS = 20000;
+    private static final int MEASURED_SESSIONS = 1000;
+
+    private final byte[] response = new byte[ApduEngine.MAX_RESPONSE_LENGTH];
+    private byte[] ndefFile;
+    private FileSystem fileSystem;
+    private int macLength = 0;
+    private byte[] challenge = null;
+    private ApduEngine engine;
+
+    private final ApduEngine.Delegate delegate = new ApduEngine.Delegate() {
+        @Override
+        public byte[] loadNdefFile() {
+            return ndefFile;
+        }
+
+        @Override
+        public int authenticate(byte[] data, int offset, int length, byte[] response) {
+            challenge = Arrays.copyOfRange(data, offset, offset + length);
+            for (int i = 0; i < macLength; i++) {
+                response[i] = (byte) i;
+            }
+            return macLength;
+        }
+
+        @Override
+        public FileSystem loadFileSystem() {
+            return fileSystem;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        ndefFile = NdefEncoder.encodeTextFile("en", repeat('x', 600), NDEF_ID);
+        fileSystem = new FileSystem.Builder()
+                .addTransparent(0xE105, 1, ByteUtils.hexToBytes("0102030405"))
+                .addRecords(0xE106, 2, Arrays.asList(ByteUtils.hexToBytes("01A0"), ByteUtils.hexToBytes("02B0C0")))
+                .build();
+        engine = new ApduEngine(delegate);
+    }
+
+    @Test
+    public void servesTheNdefFile() {
+        assertEquals(0x9000, status(process(SELECT_APPLICATION)));
+        assertEquals(7, engine.getAidLength());
+        assertEquals(0x9000, status(process(SELECT_CAPABILITY_CONTAINER)));
+
+        int length = process(READ_CAPABILITY_CONTAINER);
+        assertEquals(17, length);
+        assertEquals(0x9000, status(length));
+
+        assertEquals(0x9000, status(process(SELECT_NDEF)));
+
+        length = process(READ_NLEN);
+        assertEquals(4, length);
+        assertEquals(ndefFile.length - 2, ByteUtils.readU16(response, 0));
+
+        byte[] read = new byte[ndefFile.length];
+        int offset = 0;
+        while (offset < ndefFile.length) {
+            length = process(readBinary(offset, 0xFF));
+            assertEquals(ApduEngine.COMMAND_READ_NDEF, engine.getLastCommand());
+            assertEquals(0x9000, status(length));
+            System.arraycopy(response, 0, read, offset, length - 2);
+            offset += length - 2;
+        }
+        assertArrayEquals(ndefFile, read);
+    }
+
+    @Test
+    public void failsWithoutNdefFile() {
+        ndefFile = null;
+        process(SELECT_APPLICATION);
+        process(SELECT_CAPABILITY_CONTAINER);
+        assertEquals(0x6A82, status(process(READ_CAPABILITY_CONTAINER)));
+        assertEquals(0x6A82, status(process(READ_NLEN)));
+        assertEquals(0x6A82, status(process(readBinary(0, 0x10))));
+    }
+
+    @Test
+    public void rejectsUnknownCommands() {
+        assertEquals(2, process(ByteUtils.hexToBytes("80CA9F7F00")));
+        assertEquals(ApduEngine.COMMAND_UNKNOWN, engine.getLastCommand());
+        assertEquals(0x6A82, engine.getLastStatus());
+    }
+
+    @Test
+    public void rejectsReadsBeyondTheFile() {
+        runSession();
+        assertEquals(0x6A82, status(process(readBinary(ndefFile.length + 1, 0x10))));
+    }
+
+    @Test
+    public void readsUpTo256BytesForLeZero() {
+        runSession();
+        int length = process(readBinary(0, 0x00));
+        assertEquals(ApduEngine.COMMAND_READ_NDEF, engine.getLastCommand());
+        assertEquals(0x9000, status(length));
+        assertEquals(256, length - 2);
+        assertArrayEquals(Arrays.copyOf(ndefFile, 256), Arrays.copyOf(response, 256));
+
+        length = process(readBinary(ndefFile.length - 10, 0x00));
+        assertEquals(0x9000, status(length));
+        assertEquals(10, length - 2);
+
+        process(SELECT_APPLICATION);
+        process(ByteUtils.hexToBytes("00A4000C02E105"));
+        length = process(readBinary(0, 0x00));
+        assertEquals(0x9000, status(length));
+        assertEquals(5, length - 2);
+    }
+
+    @Test
+    public void internalAuthenticateWithoutKey() {
+        assertEquals(0x6985, status(process(ByteUtils.hexToBytes("008800000401020304"))));
+        assertEquals(0x6700, status(process(ByteUtils.hexToBytes("0088000008010203"))));
+    }
+
+    @Test
+    public void internalAuthenticateWithFailingMac() {
+        macLength = -1;
+        int length = process(ByteUtils.hexToBytes("008800000401020304"));
+        assertEquals(2, length);
+        assertEquals(0x6985, status(length));
+
+        macLength = 16;
+        length = process(ByteUtils.hexToBytes("008800000401020304"));
+        assertEquals(18, length);
+        assertEquals(0x9000, status(length));
+        assertEquals("01020304", ByteUtils.bytesToHex(challenge));
+    }
+
+    @Test
+    public void readsTransparentFile() {
+        process(SELECT_APPLICATION);
+        assertEquals(0x9000, status(process(ByteUtils.hexToBytes("00A4000C02E105"))));
+        int length = process(ByteUtils.hexToBytes("00B0000100"));
+        assertEquals(ApduEngine.COMMAND_READ_BINARY, engine.getLastCommand());
+        assertEquals("02030405" + "9000", ByteUtils.bytesToHex(Arrays.copyOf(response, length)));
+        assertEquals(0x6B00, status(process(ByteUtils.hexToBytes("00B0000600"))));
+        assertEquals(0x6981, status(process(ByteUtils.hexToBytes("00B2010400"))));
+    }
+
+    @Test
+    public void readsRecordsByShortFileIdentifier() {
+        process(SELECT_APPLICATION);
+        int length = process(ByteUtils.hexToBytes("00B2021400"));
+        assertEquals("02B0C0" + "9000", ByteUtils.bytesToHex(Arrays.copyOf(response, length)));
+        // Record 2 of the now current file
+        assertEquals("02B0C0" + "9000", ByteUtils.bytesToHex(Arrays.copyOf(response, process(ByteUtils.hexToBytes("00B2020400")))));
+        assertEquals(0x6C03, status(process(ByteUtils.hexToBytes("00B2020401"))));
+        assertEquals(0x6A83, status(process(ByteUtils.hexToBytes("00B2030400"))));
+        assertEquals(0x6A82, status(process(ByteUtils.hexToBytes("00B2011C00"))));
+
+        length = process(ByteUtils.hexToBytes("00B0810100"));
+        assertEquals("02030405" + "9000", ByteUtils.bytesToHex(Arrays.copyOf(response, length)));
+    }
+
+    @Test
+    public void answersSelectWithFci() {
+        process(SELECT_APPLICATION);
+        int length = process(ByteUtils.hexToBytes("00A4000002E10600"));
+        assertEquals("6211" + "80020005" + "820404210302" + "8302E106" + "880110" + "9000",
+                ByteUtils.bytesToHex(Arrays.copyOf(response, length)));
+        assertEquals(0x6A82, status(process(ByteUtils.hexToBytes("00A4000C02E107"))));
+        assertEquals(0x6986, status(process(ByteUtils.hexToBytes("00B2010400"))));
+    }
+
+    @Test
+    public void ndefFlowSurvivesFileSelection() {
+        process(SELECT_APPLICATION);
+        process(ByteUtils.hexToBytes("00A4000C02E105"));
+        process(SELECT_CAPABILITY_CONTAINER);
+        assertEquals(17, process(READ_CAPABILITY_CONTAINER));
+        process(SELECT_NDEF);
+        process(READ_NLEN);
+        assertEquals(ApduEngine.COMMAND_READ_NLEN, engine.getLastCommand());
+        process(readBinary(0, 0xFF));
+        assertEquals(ApduEngine.COMMAND_READ_NDEF, engine.getLastCommand());
+    }
+
+    @Test
+    public void assemblesChainedCommands() {
+        macLength = 8;
+        byte[] part = new byte[200];
+        Arrays.fill(part, (byte) 0x5A);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0x9000, status(process(command(0x10, 0x88, part, -1))));
+            assertEquals(ApduEngine.COMMAND_CHAINED, engine.getLastCommand());
+        }
+        int length = process(command(0x00, 0x88, new byte[] { 0x01 }, 0));
+        assertEquals(ApduEngine.COMMAND_INTERNAL_AUTHENTICATE, engine.getLastCommand());
+        assertEquals(0x9000, status(length));
+        assertEquals(601, challenge.length);
+        assertEquals(0x5A, challenge[599]);
+        assertEquals(0x01, challenge[600]);
+    }
+
+    @Test
+    public void rejectsBrokenChains() {
+        process(command(0x10, 0x88, new byte[] { 0x01 }, -1));
+        assertEquals(0x6883, status(process(SELECT_NDEF)));
+        // The chain was dropped, the next command stands alone
+        assertEquals(0x9000, status(process(SELECT_NDEF)));
+    }
+
+    @Test
+    public void continuesLongResponsesWithGetResponse() {
+        macLength = 32;
+        int length = process(command(0x00, 0x88, new byte[] { 0x01, 0x02 }, 0x10));
+        assertEquals(0x6110, status(length));
+        assertEquals(16 + 2, length);
+        assertEquals(15, response[15]);
+
+        length = process(ByteUtils.hexToBytes("00C0000008"));
+        assertEquals(ApduEngine.COMMAND_GET_RESPONSE, engine.getLastCommand());
+        assertEquals(0x6108, status(length));
+        assertEquals(16, response[0]);
+
+        length = process(ByteUtils.hexToBytes("00C0000000"));
+        assertEquals(0x9000, status(length));
+        assertEquals(8 + 2, length);
+        assertEquals(31, response[7]);
+
+        assertEquals(0x6985, status(process(ByteUtils.hexToBytes("00C0000000"))));
+    }
+
+    @Test
+    public void continuesFciWithGetResponse() {
+        process(SELECT_APPLICATION);
+        int length = process(ByteUtils.hexToBytes("00A4000002E10604"));
+        assertEquals(0x610F, status(length));
+        length = process(ByteUtils.hexToBytes("00C000000F"));
+        assertEquals("0005" + "820404210302" + "8302E106" + "880110" + "9000", ByteUtils.bytesToHex(Arrays.copyOf(response, length)));
+    }
+
+    @Test
+    public void steadyStateReadBinaryDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_SESSIONS; i++) {
+            runSession();
+        }
+
+        // Reading the counter allocates by itself, measure that first
+        long baseline = threads.getThreadAllocatedBytes(thread);
+        baseline = threads.getThreadAllocatedBytes(thread) - baseline;
+
+        int apdus = 0;
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_SESSIONS; i++) {
+            apdus += runSession();
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start - baseline;
+
+        assertTrue(allocated + " bytes allocated over " + apdus + " APDUs",
+                allocated <= ALLOCATION_BUDGET * apdus);
+    }
+
+    private int runSession() {
+        int apdus = 5;
+        process(SELECT_APPLICATION);
+        process(SELECT_CAPABILITY_CONTAINER);
+        process(READ_CAPABILITY_CONTAINER);
+        process(SELECT_NDEF);
+        assertEquals(ndefFile.length - 2, ByteUtils.readU16(response, process(READ_NLEN) - 4));
+        for (int offset = 0; offset < ndefFile.length; offset += 0xFF) {
+            process(readBinary(offset, 0xFF));
+            apdus++;
+        }
+        engine.reset();
+        return apdus;
+    }
+
+    private static byte[] command(int cla, int ins, byte[] data, int expected) {
+        byte[] command = new byte[5 + data.length + (expected >= 0 ? 1 : 0)];
+        command[0] = (byte) cla;
+        command[1] = (byte) ins;
+        command[4] = (byte) data.length;
+        System.arraycopy(data, 0, command, 5, data.length);
+        if (expected >= 0) {
+            command[command.length - 1] = (byte) expected;
+        }
+        return command;
+    }
+
+    private int process(byte[] command) {
+        return engine.process(command, command.length, response);
+    }
+
+    private int status(int length) {
+        return ByteUtils.readU16(response, length - 2);
+    }
+
+    // Commands are built up front so the measured loop only exercises the engine
+    private final byte[][] readBinaryCommands = new byte[16][];
+
+    private byte[] readBinary(int offset, int length) {
+        int slot = offset / 0xFF;
+        if (length == 0xFF && offset % 0xFF == 0 && slot < readBinaryCommands.length) {
+            if (readBinaryCommands[slot] == null) {
+                readBinaryCommands[slot] = new byte[] { 0x00, (byte) 0xB0, (byte) (offset >> 8), (byte) offset, (byte) length };
+            }
+            return readBinaryCommands[slot];
+        }
+        return new byte[] { 0x00, (byte) 0xB0, (byte) (offset >> 8), (byte) offset, (byte) length };
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,122 @@
+package studio.bb.rnlib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ApduScriptTest {
+
+    private static final byte[] NDEF_ID = { (byte) 0xE1, (byte) 0x04 };
+
+    private static ApduScript script(boolean followResponses, boolean stopOnError, String... commands) {
+        List<byte[]> list = new ArrayList<>();
+        for (String command : commands) {
+            list.add(ByteUtils.hexToBytes(command));
+        }
+        return new ApduScript(list, followResponses, stopOnError);
+    }
+
+    private static List<String> hex(ApduScript.Result result) {
+        List<String> list = new ArrayList<>();
+        for (byte[] response : result.responses) {
+            list.add(ByteUtils.bytesToHex(response));
+        }
+        return list;
+    }
+
+    @Test
+    public void readsOurOwnCard() {
+        final byte[] ndefFile = NdefEncoder.encodeTextFile("en", "hello", NDEF_ID);
+        ApduEngine engine = new ApduEngine(new ApduEngine.Delegate() {
+            @Override
+            public byte[] loadNdefFile() {
+                return ndefFile;
+            }
+
+            @Override
+            public int authenticate(byte[] challenge, int offset, int length, byte[] response) {
+                return -1;
+            }
+
+            @Override
+            public FileSystem loadFileSystem() {
+                return FileSystem.EMPTY;
+            }
+        });
+
+        ApduScript.Result result = script(true, true,
+                "00A4040007D276000085010100", "00A4000C02E103", "00B000000F",
+                "00A4000C02E104", "00B0000002", "00B000020F")
+                .run(new FakeApduTransport(engine));
+
+        assertNull(result.error);
+        assertEquals(6, result.responses.size());
+        List<String> responses = hex(result);
+        assertEquals("9000", responses.get(0));
+        assertEquals("000F9000", responses.get(4));
+        assertEquals(ByteUtils.bytesToHex(ByteUtils.subbytes(ndefFile, 2, 17)) + "9000", responses.get(5));
+    }
+
+    @Test
+    public void followsGetResponse() {
+        FakeApduTransport transport = new FakeApduTransport().answer("01026103", "0304056101", "069000");
+        ApduScript.Result result = script(true, false, "0088000002AAAA00").run(transport);
+        assertNull(result.error);
+        assertEquals(Arrays.asList("0102030405069000"), hex(result));
+        assertEquals(Arrays.asList("0088000002AAAA00", "00C0000003", "00C0000001"), transport.sent);
+    }
+
+    @Test
+    public void resendsWithRequestedLe() {
+        FakeApduTransport transport = new FakeApduTransport().answer("6C03", "A0B0C09000", "6C02", "01029000");
+        ApduScript.Result result = script(true, false, "00B2021400", "00B2020C").run(transport);
+        assertEquals(Arrays.asList("A0B0C09000", "01029000"), hex(result));
+        assertEquals(Arrays.asList("00B2021400", "00B2021403", "00B2020C", "00B2020C02"), transport.sent);
+    }
+
+    @Test
+    public void leavesStatusesAloneWhenNotFollowing() {
+        FakeApduTransport transport = new FakeApduTransport().answer("01026103");
+        ApduScript.Result result = script(false, false, "00CA000000").run(transport);
+        assertEquals(Arrays.asList("01026103"), hex(result));
+        assertEquals(1, transport.sent.size());
+    }
+
+    @Test
+    public void stopsOnError() {
+        FakeApduTransport transport = new FakeApduTransport().answer("9000", "6A82", "9000");
+        ApduScript.Result result = script(true, true, "00A4000C02E105", "00A4000C02E106", "00A4000C02E107").run(transport);
+        assertEquals(Arrays.asList("9000", "6A82"), hex(result));
+        assertEquals("Command 2 failed", result.error);
+    }
+
+    @Test
+    public void reportsLostTag() {
+        FakeApduTransport transport = new FakeApduTransport().answer("9000");
+        ApduScript.Result result = script(true, false, "00A4000C02E105", "00B0000000").run(transport);
+        assertEquals(Arrays.asList("9000"), hex(result));
+        assertEquals("Tag was lost.", result.error);
+    }
+
+    @Test
+    public void setsLeOfEveryCommandCase() {
+        byte le = 0x10;
+        assertEquals("00B0000010", ByteUtils.bytesToHex(ApduScript.withLe(ByteUtils.hexToBytes("00B00000"), le)));
+        assertEquals("00B0000010", ByteUtils.bytesToHex(ApduScript.withLe(ByteUtils.hexToBytes("00B0000000"), le)));
+        assertEquals("00A4000C02E10410", ByteUtils.bytesToHex(ApduScript.withLe(ByteUtils.hexToBytes("00A4000C02E104"), le)));
+        assertEquals("00A4000C02E10410", ByteUtils.bytesToHex(ApduScript.withLe(ByteUtils.hexToBytes("00A4000C02E10400"), le)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortCommands() {
+        script(true, true, "00A4");
+    }
+
+}
@@ -0,0 +1,167 @@
+package studio.bb.rnlib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CardStateStoreTest {
+
+    private File path;
+    private CardStateStore writer;
+    private CardStateStore reader;
+
+    @Before
+    public void setUp() throws IOException {
+        path = File.createTempFile("card-state", null);
+        // Two mappings of the same file, as the app and the service process would have
+        writer = new CardStateStore(path);
+        reader = new CardStateStore(path);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        reader.close();
+        path.delete();
+    }
+
+    @Test
+    public void startsEmpty() {
+        assertEquals(0, reader.getVersion());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void readsWhatAnotherMappingWrote() throws IOException {
+        assertEquals(1, writer.write("idTag", "ok", null));
+        assertEquals(1, reader.getVersion());
+        CardStateStore.State state = reader.read();
+        assertEquals("idTag", state.idTag);
+        assertEquals("ok", state.successToast);
+        assertNull(state.errorToast);
+
+        assertEquals(2, writer.write("id\u00e9", null, "error"));
+        state = reader.read();
+        assertEquals(2, state.version);
+        assertEquals("id\u00e9", state.idTag);
+        assertEquals("error", state.errorToast);
+    }
+
+    @Test
+    public void decodesOncePerVersion() throws IOException {
+        writer.write("idTag", "ok", "error");
+        assertSame(reader.read(), reader.read());
+    }
+
+    @Test
+    public void keepsLastStateWhileWriteIsInProgress() throws IOException {
+        writer.write("idTag", "ok", "error");
+        CardStateStore.State state = reader.read();
+        writer.write("next", "ok", "error");
+
+        // A writer that died between the two sequence updates
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.seek(4);
+            int sequence = file.readInt();
+            file.seek(4);
+            file.writeInt(sequence + 1);
+        } finally {
+            file.close();
+        }
+        assertSame(state, reader.read());
+
+        // The next write recovers
+        writer.write("recovered", null, null);
+        assertEquals("recovered", reader.read().idTag);
+    }
+
+    @Test
+    public void rejectsCorruptPayload() throws IOException {
+        writer.write("idTag", "ok", "error");
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.seek(CardStateStore.HEADER_SIZE + 4);
+            file.write('X');
+        } finally {
+            file.close();
+        }
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void sharesConfigVersions() throws IOException {
+        assertEquals(0, reader.getConfigVersion(0));
+        assertEquals(1, writer.bumpConfigVersion(0));
+        assertEquals(2, writer.bumpConfigVersion(0));
+        assertEquals(1, reader.bumpConfigVersion(CardStateStore.CONFIG_SLOTS - 1));
+        assertEquals(2, reader.getConfigVersion(0));
+        assertEquals(1, writer.getConfigVersion(CardStateStore.CONFIG_SLOTS - 1));
+    }
+
+    @Test
+    public void keepsConfigVersionsAcrossStateWrites() throws IOException {
+        writer.bumpConfigVersion(2);
+        writer.write("idTag", "ok", "error");
+        assertEquals(1, reader.getConfigVersion(2));
+        assertEquals("idTag", reader.read().idTag);
+        assertEquals(1, reader.getVersion());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownConfigSlot() {
+        reader.getConfigVersion(CardStateStore.CONFIG_SLOTS);
+    }
+
+    @Test
+    public void sharesMetrics() throws IOException {
+        long[] metrics = new long[3];
+        assertFalse(reader.readMetrics(metrics));
+
+        writer.writeMetrics(new long[]{1, 2, 3});
+        writer.write("idTag", "ok", "error");
+        assertTrue(reader.readMetrics(metrics));
+        assertArrayEquals(new long[]{1, 2, 3}, metrics);
+
+        writer.writeMetrics(new long[]{4, 5});
+        assertTrue(reader.readMetrics(metrics));
+        assertArrayEquals(new long[]{4, 5, 3}, metrics);
+    }
+
+    @Test
+    public void clearsTheHeaderOfAnEarlierLayout() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.writeInt(0x524E4832); // RNH2
+            file.seek(CardStateStore.HEADER_SIZE - 8);
+            file.writeLong(42);
+        } finally {
+            file.close();
+        }
+        CardStateStore upgraded = new CardStateStore(path);
+        try {
+            assertEquals(0, upgraded.getVersion());
+            assertFalse(upgraded.readMetrics(new long[CardStateStore.METRIC_SLOTS]));
+            assertEquals(1, upgraded.write("idTag", null, null));
+        } finally {
+            upgraded.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOversizedState() throws IOException {
+        writer.write(new String(new char[CardStateStore.FILE_SIZE]), null, null);
+    }
+
+}
@@ -0,0 +1,50 @@
+package studio.bb.rnlib;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+/**
+ * Stands in for IsoDep: answers from queued responses, or from an
+ * {@link ApduEngine} emulating our own card, and records what was sent.
+ */
+class FakeApduTransport implements ApduTransport {
+
+    private final Queue<byte[]> responses = new ArrayDeque<>();
+    private final ApduEngine engine;
+    private final byte[] buffer = new byte[ApduEngine.MAX_RESPONSE_LENGTH];
+    final List<String> sent = new ArrayList<>();
+
+    FakeApduTransport() {
+        this.engine = null;
+    }
+
+    FakeApduTransport(ApduEngine engine) {
+        this.engine = engine;
+    }
+
+    FakeApduTransport answer(String... hexResponses) {
+        for (String hex : hexResponses) {
+            responses.add(ByteUtils.hexToBytes(hex));
+        }
+        return this;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        sent.add(ByteUtils.bytesToHex(command));
+        if (engine != null) {
+            int length = engine.process(command, command.length, buffer);
+            return ByteUtils.subbytes(buffer, 0, length);
+        }
+        if (responses.isEmpty()) {
+            throw new IOException("Tag was lost.");
+        }
+        return responses.remove();
+    }
+
+}
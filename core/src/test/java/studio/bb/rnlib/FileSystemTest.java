@@ -0,0 +1,67 @@
+package studio.bb.rnlib;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileSystemTest {
+
+    @Test
+    public void indexesManyFiles() {
+        FileSystem.Builder builder = new FileSystem.Builder();
+        for (int fid = 0x1000; fid < 0x1000 + 300; fid++) {
+            builder.addTransparent(fid, 0, new byte[] { (byte) fid });
+        }
+        FileSystem fileSystem = builder.build();
+        assertEquals(300, fileSystem.size());
+        for (int fid = 0x1000; fid < 0x1000 + 300; fid++) {
+            int index = fileSystem.indexOf(fid);
+            assertEquals(fid, fileSystem.get(index).fid);
+        }
+        assertEquals(-1, fileSystem.indexOf(0x0FFF));
+        assertEquals(-1, fileSystem.indexOf(0x1000 + 300));
+    }
+
+    @Test
+    public void emptyFileSystemFindsNothing() {
+        assertEquals(-1, FileSystem.EMPTY.indexOf(0xE105));
+        assertEquals(-1, FileSystem.EMPTY.indexOfSfi(1));
+        assertEquals(-1, FileSystem.EMPTY.indexOfSfi(0));
+    }
+
+    @Test
+    public void indexesShortFileIdentifiers() {
+        FileSystem fileSystem = new FileSystem.Builder()
+                .addTransparent(0xE105, 30, ByteUtils.EMPTY)
+                .addRecords(0xE106, 0, Collections.singletonList(ByteUtils.EMPTY))
+                .build();
+        assertEquals(0xE105, fileSystem.get(fileSystem.indexOfSfi(30)).fid);
+        assertTrue(fileSystem.get(fileSystem.indexOf(0xE106)).isRecordFile());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReservedFid() {
+        new FileSystem.Builder().addTransparent(0xE104, 0, ByteUtils.EMPTY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateFid() {
+        new FileSystem.Builder().addTransparent(0xE105, 0, ByteUtils.EMPTY).addTransparent(0xE105, 0, ByteUtils.EMPTY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateSfi() {
+        new FileSystem.Builder().addTransparent(0xE105, 1, ByteUtils.EMPTY).addTransparent(0xE106, 1, ByteUtils.EMPTY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOversizedRecord() {
+        new FileSystem.Builder().addRecords(0xE105, 0, Collections.singletonList(new byte[FileSystem.MAX_RECORD_SIZE + 1]));
+    }
+
+}
@@ -0,0 +1,70 @@
+package studio.bb.rnlib;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pins the MACs to the published test vectors, with the message split between
+ * the two ranges the way challenge || idTag is.
+ */
+public class KeyedMacTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    // RFC 4493 section 4
+    private static final String CMAC_KEY = "2B7E151628AED2A6ABF7158809CF4F3C";
+    private static final String CMAC_MESSAGE = "6BC1BEE22E409F96E93D7E117393172A"
+            + "AE2D8A571E03AC9C9EB76FAC45AF8E51"
+            + "30C81C46A35CE411E5FBC1191A0A52EF"
+            + "F69F2445DF4F9B17AD2B417BE66C3710";
+
+    @Test
+    public void matchesRfc4493() throws Exception {
+        KeyedMac mac = new KeyedMac(KeyedMac.AES_CMAC, ByteUtils.hexToBytes(CMAC_KEY));
+        assertEquals(16, mac.getLength());
+        byte[] message = ByteUtils.hexToBytes(CMAC_MESSAGE);
+        assertEquals("BB1D6929E95937287FA37D129B756746", compute(mac, message, 0, 0));
+        assertEquals("070A16B46B4D4144F79BDD9DD04A287C", compute(mac, message, 16, 4));
+        assertEquals("DFA66747DE9AE63030CA32611497C827", compute(mac, message, 40, 16));
+        assertEquals("51F0BEBF7E3B9D92FC49741779363CFE", compute(mac, message, 64, 33));
+    }
+
+    @Test
+    public void matchesRfc4231() throws Exception {
+        byte[] key = new byte[20];
+        Arrays.fill(key, (byte) 0x0B);
+        assertEquals("B0344C61D8DB38535CA8AFCEAF0BF12B881DC200C9833DA726E9376C2E32CFF7",
+                compute(new KeyedMac(KeyedMac.HMAC_SHA256, key), "Hi There"));
+
+        assertEquals("5BDCC146BF60754E6A042426089575C75A003F089D2739839DEC58B964EC3843",
+                compute(new KeyedMac(KeyedMac.HMAC_SHA256, "Jefe".getBytes(US_ASCII)), "what do ya want for nothing?"));
+
+        key = new byte[131];
+        Arrays.fill(key, (byte) 0xAA);
+        assertEquals("60E431591EE0B67F0D8A26AACBF5B77F8E0BC6213728C5140546040F0EE37F54",
+                compute(new KeyedMac(KeyedMac.HMAC_SHA256, key), "Test Using Larger Than Block-Size Key - Hash Key First"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCmacKeysOfOtherLengths() throws Exception {
+        new KeyedMac(KeyedMac.AES_CMAC, new byte[15]);
+    }
+
+    private static String compute(KeyedMac mac, String message) throws Exception {
+        byte[] bytes = message.getBytes(US_ASCII);
+        return compute(mac, bytes, bytes.length, bytes.length / 2);
+    }
+
+    private static String compute(KeyedMac mac, byte[] message, int length, int split) throws Exception {
+        byte[] destination = new byte[mac.getLength()];
+        assertEquals(destination.length, mac.compute(message, 0, split, message, split, length - split, destination));
+        return ByteUtils.bytesToHex(destination);
+    }
+
+}
@@ -0,0 +1,79 @@
+package studio.bb.rnlib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryTracerTest {
+
+    @Test
+    public void recordsNestedSpans() {
+        MemoryTracer tracer = new MemoryTracer(8);
+        tracer.begin(Tracer.SPAN_APDU);
+        tracer.begin(Tracer.SPAN_ID_LOOKUP);
+        tracer.end();
+        tracer.begin(Tracer.SPAN_RESPONSE);
+        tracer.end();
+        tracer.end();
+
+        assertEquals(3, tracer.size());
+        assertEquals(Tracer.SPAN_APDU, tracer.getName(0));
+        assertEquals(0, tracer.getDepth(0));
+        assertEquals(Tracer.SPAN_ID_LOOKUP, tracer.getName(1));
+        assertEquals(1, tracer.getDepth(1));
+        assertEquals(Tracer.SPAN_RESPONSE, tracer.getName(2));
+        assertEquals(1, tracer.getDepth(2));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(tracer.getDurationNanos(i) >= 0);
+        }
+        assertTrue(tracer.getDurationNanos(0) >= tracer.getDurationNanos(1) + tracer.getDurationNanos(2));
+        assertTrue(tracer.getStartNanos(2) >= tracer.getStartNanos(1));
+    }
+
+    @Test
+    public void leavesOpenSpansWithoutDuration() {
+        MemoryTracer tracer = new MemoryTracer(8);
+        tracer.begin(Tracer.SPAN_APDU);
+        assertEquals(-1, tracer.getDurationNanos(0));
+    }
+
+    @Test
+    public void dropsSpansBeyondCapacity() {
+        MemoryTracer tracer = new MemoryTracer(2);
+        tracer.begin(Tracer.SPAN_APDU);
+        tracer.begin(Tracer.SPAN_ID_LOOKUP);
+        tracer.begin(Tracer.SPAN_LOG);
+        tracer.end();
+        tracer.end();
+        tracer.end();
+
+        assertEquals(2, tracer.size());
+        assertEquals(Tracer.SPAN_ID_LOOKUP, tracer.getName(1));
+        assertTrue(tracer.getDurationNanos(0) >= 0);
+        assertTrue(tracer.getDurationNanos(1) >= 0);
+    }
+
+    @Test
+    public void ignoresUnbalancedEnd() {
+        MemoryTracer tracer = new MemoryTracer(2);
+        tracer.end();
+        tracer.begin(Tracer.SPAN_TOAST);
+        tracer.end();
+        assertEquals(1, tracer.size());
+        assertEquals(0, tracer.getDepth(0));
+    }
+
+    @Test
+    public void clearsSpans() {
+        MemoryTracer tracer = new MemoryTracer(2);
+        tracer.begin(Tracer.SPAN_APDU);
+        tracer.end();
+        tracer.clear();
+        assertEquals(0, tracer.size());
+        tracer.begin(Tracer.SPAN_LOG);
+        tracer.end();
+        assertEquals(Tracer.SPAN_LOG, tracer.getName(0));
+    }
+
+}
@@ -0,0 +1,92 @@
+package studio.bb.rnlib;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import studio.bb.rnlib.utils.ByteUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NdefEncoderTest {
+
+    private static final byte[] NDEF_ID = { (byte) 0xE1, (byte) 0x04 };
+
+    @Test
+    public void encodesShortRecord() {
+        byte[] file = NdefEncoder.encodeTextFile("en", "hi", NDEF_ID);
+        // NLEN, header MB|ME|SR|IL|TNF=1, type length, payload length, id length, 'T', id, status, "en", "hi"
+        assertArrayEquals(ByteUtils.hexToBytes("000C" + "D9" + "01" + "05" + "02" + "54" + "E104" + "02" + "656E" + "6869"), file);
+        assertEquals(file.length, NdefEncoder.textFileLength("en", "hi", NDEF_ID));
+    }
+
+    @Test
+    public void encodesLongRecord() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append('a');
+        }
+        byte[] file = NdefEncoder.encodeTextFile("en", text, NDEF_ID);
+        int payloadLength = 1 + 2 + 300;
+        assertEquals(2 + 2 + 4 + 1 + 1 + 2 + payloadLength, file.length);
+        assertEquals(file.length - 2, ByteUtils.readU16(file, 0));
+        // No SR flag, four byte payload length
+        assertEquals(0xC9, ByteUtils.readU8(file, 2));
+        assertEquals(payloadLength, ByteUtils.readU16(file, 6));
+    }
+
+    @Test
+    public void encodesWithoutId() {
+        byte[] file = NdefEncoder.encodeTextFile("en", "", ByteUtils.EMPTY);
+        assertArrayEquals(ByteUtils.hexToBytes("0007" + "D1" + "01" + "03" + "54" + "02" + "656E"), file);
+    }
+
+    @Test
+    public void encodesUtf8() {
+        String text = "\u00e9\u20ac\ud83d\ude00";
+        byte[] expected = text.getBytes(Charset.forName("UTF-8"));
+        assertEquals(expected.length, NdefEncoder.utf8Length(text));
+        byte[] actual = new byte[expected.length];
+        assertEquals(expected.length, NdefEncoder.writeUtf8(text, actual, 0));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void replacesMalformedSurrogates() {
+        String text = "a\ud83db";
+        byte[] actual = new byte[NdefEncoder.utf8Length(text)];
+        NdefEncoder.writeUtf8(text, actual, 0);
+        assertArrayEquals(new byte[] { 'a', '?', 'b' }, actual);
+    }
+
+    @Test
+    public void encodingIntoBufferDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+        String text = "card-0123456789-\u00e9\u20ac";
+        byte[] buffer = new byte[NdefEncoder.textFileLength("en", text, NDEF_ID)];
+
+        for (int i = 0; i < 20000; i++) {
+            NdefEncoder.encodeTextFile("en", text, NDEF_ID, buffer, 0);
+        }
+
+        long baseline = threads.getThreadAllocatedBytes(thread);
+        baseline = threads.getThreadAllocatedBytes(thread) - baseline;
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            NdefEncoder.encodeTextFile("en", text, NDEF_ID, buffer, 0);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start - baseline;
+
+        assertTrue(allocated + " bytes allocated", allocated <= 0);
+        assertArrayEquals(NdefEncoder.encodeTextFile("en", text, NDEF_ID), buffer);
+    }
+
+}
@@ -0,0 +1,87 @@
+package studio.bb.rnlib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkBudgetTest {
+
+    @Test
+    public void refusesOnceSessionApdusAreSpent() {
+        WorkBudget budget = new WorkBudget(new WorkBudget.Config(3, 0, 0, 0, 0, 0, 0));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(budget.admit(i));
+            budget.record(2, false);
+        }
+        assertFalse(budget.admit(3));
+        assertFalse(budget.admit(100000));
+
+        budget.endSession();
+        assertTrue(budget.admit(100001));
+    }
+
+    @Test
+    public void refusesOnceSessionBytesOrInvalidCommandsAreSpent() {
+        WorkBudget budget = new WorkBudget(new WorkBudget.Config(0, 10, 2, 0, 0, 0, 0));
+        budget.record(9, false);
+        assertTrue(budget.admit(0));
+        budget.record(1, false);
+        assertFalse(budget.admit(0));
+
+        budget.endSession();
+        budget.record(2, true);
+        assertTrue(budget.admit(0));
+        budget.record(2, true);
+        assertFalse(budget.admit(0));
+    }
+
+    @Test
+    public void windowOutlivesSessionsUntilItRollsOver() {
+        WorkBudget budget = new WorkBudget(new WorkBudget.Config(0, 0, 0, 1000, 4, 0, 0));
+        assertTrue(budget.admit(5000));
+        for (int i = 0; i < 4; i++) {
+            budget.record(2, false);
+            budget.endSession();
+        }
+        assertFalse(budget.admit(5999));
+        assertTrue(budget.admit(6000));
+    }
+
+    @Test
+    public void unlimitedNeverRefuses() {
+        WorkBudget budget = new WorkBudget(WorkBudget.UNLIMITED);
+        for (int i = 0; i < 100000; i++) {
+            budget.record(256, true);
+        }
+        assertTrue(budget.admit(0));
+    }
+
+    @Test
+    public void limitsOnlyOnceOptedIn() {
+        WorkBudget budget = new WorkBudget(WorkBudget.DEFAULT);
+        for (int i = 0; i < 1000; i++) {
+            budget.record(256, false);
+        }
+        assertTrue(budget.admit(0));
+        budget.setConfig(WorkBudget.RECOMMENDED);
+        assertFalse(budget.admit(0));
+    }
+
+    @Test
+    public void newConfigAppliesToCurrentCounters() {
+        WorkBudget budget = new WorkBudget(WorkBudget.UNLIMITED);
+        budget.record(2, false);
+        budget.record(2, false);
+        budget.setConfig(new WorkBudget.Config(2, 0, 0, 0, 0, 0, 0));
+        assertFalse(budget.admit(0));
+        budget.setConfig(WorkBudget.UNLIMITED);
+        assertTrue(budget.admit(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWindowLimitsWithoutWindow() {
+        new WorkBudget.Config(0, 0, 0, 0, 10, 0, 0);
+    }
+
+}
@@ -0,0 +1,73 @@
+package studio.bb.rnlib.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ByteUtilsTest {
+
+    private static final byte[] BYTES = { 0x00, (byte) 0xA4, 0x04, 0x00, 0x07, (byte) 0xFF };
+
+    @Test
+    public void comparesRegions() {
+        assertTrue(ByteUtils.startsWith(BYTES, new byte[] { 0x00, (byte) 0xA4 }));
+        assertFalse(ByteUtils.startsWith(new byte[] { 0x00 }, new byte[] { 0x00, (byte) 0xA4 }));
+        assertTrue(ByteUtils.startsWith(BYTES, 2, new byte[] { 0x04, 0x00 }));
+        assertTrue(ByteUtils.equals(BYTES, BYTES.clone()));
+        assertFalse(ByteUtils.equals(BYTES, new byte[] { 0x00, (byte) 0xA4 }));
+        assertTrue(ByteUtils.regionEquals(BYTES, 4, new byte[] { 0x01, 0x07, (byte) 0xFF }, 1, 2));
+        assertFalse(ByteUtils.regionEquals(BYTES, 5, new byte[] { (byte) 0xFF, 0x00 }, 0, 2));
+    }
+
+    @Test
+    public void readsAndWritesUnsigned() {
+        assertEquals(0xFF, ByteUtils.readU8(BYTES, 5));
+        assertEquals(0xA404, ByteUtils.readU16(BYTES, 1));
+        assertEquals(0x0407FF, ByteUtils.readU24(new byte[] { 0x04, 0x07, (byte) 0xFF }, 0));
+
+        byte[] destination = new byte[3];
+        ByteUtils.writeU16(destination, 1, 0x9000);
+        assertArrayEquals(new byte[] { 0x00, (byte) 0x90, 0x00 }, destination);
+    }
+
+    @Test
+    public void convertsHex() {
+        assertEquals("00A4040007FF", ByteUtils.bytesToHex(BYTES));
+        assertArrayEquals(BYTES, ByteUtils.hexToBytes("00a4040007ff"));
+
+        char[] chars = new char[6];
+        assertEquals(6, ByteUtils.bytesToHex(BYTES, 3, 3, chars, 0));
+        assertEquals("0007FF", new String(chars));
+
+        byte[] destination = new byte[4];
+        assertEquals(2, ByteUtils.hexToBytes("A404", destination, 1));
+        assertArrayEquals(new byte[] { 0x00, (byte) 0xA4, 0x04, 0x00 }, destination);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddHex() {
+        ByteUtils.hexToBytes("ABC");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidHex() {
+        ByteUtils.hexToBytes("0G");
+    }
+
+    @Test
+    public void copiesSubbytes() {
+        assertArrayEquals(new byte[] { 0x04, 0x00 }, ByteUtils.subbytes(BYTES, 2, 4));
+        assertArrayEquals(new byte[] { 0x07, (byte) 0xFF }, ByteUtils.subbytes(BYTES, 4));
+    }
+
+    @Test
+    public void padsToFixedDimension() {
+        assertArrayEquals(new byte[] { 0x00, 0x00, 0x01 }, ByteUtils.fillByteArrayToFixedDimension(new byte[] { 0x01 }, 3));
+        assertSame(BYTES, ByteUtils.fillByteArrayToFixedDimension(BYTES, 2));
+    }
+
+}
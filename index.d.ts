@@ -1,9 +1,119 @@
+export interface ProfileDocument {
+  activeProfile?: string;
+  aidSets?: { [name: string]: string[] };
+  profiles: { id: string; content: string; aidSet?: string; aids?: string[] }[];
+}
+export interface ImportResult {
+  profiles: number;
+  aidSets: number;
+  activeProfile: string | null;
+  aidsRegistered: boolean;
+}
+export type ElementaryFile =
+  | { fid: string; sfi?: number; content: string }
+  | { fid: string; sfi?: number; records: string[] };
+export interface NFCState {
+  supported: boolean;
+  enabled: boolean;
+  adapterState: "unsupported" | "off" | "turningOn" | "on" | "turningOff";
+  hceSupported: boolean;
+  defaultService: boolean | null;
+  registeredAids: string[];
+}
+export interface CardState {
+  version: number;
+  ready: boolean;
+  activeProfile: string | null;
+}
+export interface CardMetrics {
+  apdus: number;
+  errors: number;
+  taps: number;
+  lastTapTime: number;
+  lastProcessingMicros: number;
+  maxProcessingMicros: number;
+  throttledApdus: number;
+  throttledSessions: number;
+  firstTapProcessingMicros: number;
+}
+export interface WorkBudgetOptions {
+  maxSessionApdus?: number;
+  maxSessionBytes?: number;
+  maxSessionInvalid?: number;
+  windowSeconds?: number;
+  maxWindowApdus?: number;
+  maxWindowBytes?: number;
+  maxWindowInvalid?: number;
+}
+export interface TapJournalEntry {
+  timestamp: number;
+  aid: string;
+  contentVersion: number;
+  contentHash: number;
+  bytesServed: number;
+  apdus: number;
+  result: "ok" | "error" | "incomplete" | "throttled";
+  deactivationReason: number;
+}
+export interface RotatingTokenOptions {
+  secret: string;
+  mode?: "time" | "counter";
+  stepSeconds?: number;
+  depth?: number;
+  lowWatermark?: number;
+  skewSteps?: number;
+  clockOffsetMs?: number;
+  tokenBytes?: number;
+}
+export interface ApduScriptOptions {
+  followResponses?: boolean;
+  stopOnError?: boolean;
+}
+export interface ApduScriptResult {
+  responses: string[];
+  error: string | null;
+}
+export interface ReaderModeOptions extends ApduScriptOptions {
+  technologies?: ("A" | "B" | "F" | "V" | "BARCODE")[];
+  skipNdefCheck?: boolean;
+  noPlatformSounds?: boolean;
+  presenceCheckDelayMs?: number;
+  timeoutMs?: number;
+  script?: string[];
+}
+export interface DiscoveredTag {
+  id: string;
+  techList: string[];
+  result: ApduScriptResult | null;
+}
 declare const _default: {
   supportNFC: () => { support: boolean; enabled: boolean };
-  listenNFCStatus: (callback: (enabled: boolean) => void) => void;
+  subscribeNFCState: (callback: (state: NFCState) => void) => () => void;
+  listenNFCStatus: (callback: (enabled: boolean) => void) => () => void;
+  getCardState: () => CardState;
+  getMetrics: () => CardMetrics;
+  resetMetrics: () => void;
   setCardContent: (content: string) => void;
+  setCardState: (state: { content?: string; successToast?: string; errorToast?: string }) => void;
   registerAids: (aids: string[]) => Promise<boolean>;
   removeAids: () => Promise<boolean>;
+  setAsyncApduProcessing: (enabled: boolean) => void;
+  setTracingEnabled: (enabled: boolean) => void;
+  enableReaderMode: (options?: ReaderModeOptions, onTag?: (tag: DiscoveredTag) => void) => Promise<boolean>;
+  disableReaderMode: () => void;
+  runApduScript: (commands: string[], options?: ApduScriptOptions) => Promise<ApduScriptResult>;
+  setWorkBudget: (options?: WorkBudgetOptions | null) => Promise<boolean>;
+  setPreferredServiceEnabled: (enabled: boolean) => void;
+  isDefaultService: (aids?: string[]) => Promise<{ [aid: string]: boolean }>;
+  enableRotatingTokens: (options: RotatingTokenOptions) => Promise<boolean>;
+  disableRotatingTokens: () => void;
+  setAuthenticationKey: (algorithm: "HMAC-SHA256" | "AES-CMAC" | null, key?: string) => Promise<boolean>;
+  getTapJournal: (query?: { from?: number; to?: number; offset?: number; limit?: number }) => Promise<TapJournalEntry[]>;
+  clearTapJournal: () => void;
+  importProfiles: (document: ProfileDocument | string) => Promise<ImportResult>;
+  importProfilesFromFile: (path: string) => Promise<ImportResult>;
+  setFiles: (files: ElementaryFile[] | string) => Promise<number>;
+  activateProfile: (id: string) => Promise<boolean>;
   setSuccessToast: (content: string) => void;
   setErrorToast: (content: string) => void;
 };
@@ -1,25 +1,148 @@
-import { NativeModules, DeviceEventEmitter } from "react-native";
+import { NativeModules, DeviceEventEmitter, TurboModuleRegistry } from "react-native";
 
-const { RNHce } = NativeModules;
+const RNHce =
+  (TurboModuleRegistry && TurboModuleRegistry.get("RNHce")) ||
+  NativeModules.RNHce;
+
+// One native NFC state stream shared by every subscriber, started with the
+// first subscription and stopped with the last one
+const nfcStateSubscribers = new Set();
+let nfcState = null;
+let nfcStateListener = null;
+
+function subscribeNFCState(callback) {
+  const subscriber = { callback };
+  nfcStateSubscribers.add(subscriber);
+  if (nfcStateListener === null) {
+    nfcState = RNHce.getNfcStateSnapshot();
+    nfcStateListener = DeviceEventEmitter.addListener("nfcStateChanged", state => {
+      nfcState = state;
+      nfcStateSubscribers.forEach(s => s.callback(state));
+    });
+    RNHce.startNfcStateUpdates();
+  }
+  callback(nfcState);
+  return function unsubscribe() {
+    if (!nfcStateSubscribers.delete(subscriber) || nfcStateSubscribers.size > 0) {
+      return;
+    }
+    RNHce.stopNfcStateUpdates();
+    nfcStateListener.remove();
+    nfcStateListener = null;
+    nfcState = null;
+  };
+}
+
+// Only the onTag callback passed to enableReaderMode, so listeners the app added itself stay put
+let readerTagListener = null;
+
+function removeReaderTagListener() {
+  if (readerTagListener !== null) {
+    readerTagListener.remove();
+    readerTagListener = null;
+  }
+}
 
 export default {
   supportNFC: function () {
+    if (RNHce.getNFCState) {
+      return RNHce.getNFCState();
+    }
     return RNHce.supportNFC;
   },
+  getCardState: function () {
+    return RNHce.getCardState();
+  },
+  getMetrics: function () {
+    return RNHce.getMetrics();
+  },
+  resetMetrics: function () {
+    RNHce.resetMetrics();
+  },
+  subscribeNFCState: subscribeNFCState,
   listenNFCStatus: function (callback) {
-    DeviceEventEmitter.addListener("listenNFCStatus", resp => {
-      callback(resp.status);
+    let enabled;
+    return subscribeNFCState(state => {
+      if (enabled !== undefined && state.enabled !== enabled) {
+        callback(state.enabled);
+      }
+      enabled = state.enabled;
     });
   },
   setCardContent: function (content) {
     RNHce.setCardContent(content);
   },
+  setCardState: function ({ content, successToast, errorToast }) {
+    RNHce.setCardState(
+      content === undefined ? null : content,
+      successToast === undefined ? null : successToast,
+      errorToast === undefined ? null : errorToast
+    );
+  },
   registerAids: async function (aids) {
     return await RNHce.registerAids(aids);
   },
   removeAids: async function () {
     return await RNHce.removeAids();
   },
+  setAsyncApduProcessing: function (enabled) {
+    RNHce.setAsyncApduProcessing(enabled);
+  },
+  setTracingEnabled: function (enabled) {
+    RNHce.setTracingEnabled(enabled);
+  },
+  setWorkBudget: async function (options) {
+    return await RNHce.setWorkBudget(options || null);
+  },
+  setPreferredServiceEnabled: function (enabled) {
+    RNHce.setPreferredServiceEnabled(enabled);
+  },
+  isDefaultService: async function (aids) {
+    return await RNHce.isDefaultService(aids || null);
+  },
+  enableRotatingTokens: async function (options) {
+    return await RNHce.enableRotatingTokens(options);
+  },
+  disableRotatingTokens: function () {
+    RNHce.disableRotatingTokens();
+  },
+  setAuthenticationKey: async function (algorithm, key) {
+    return await RNHce.setAuthenticationKey(algorithm || null, key || null);
+  },
+  getTapJournal: async function ({ from = 0, to = Number.MAX_SAFE_INTEGER, offset = 0, limit = 100 } = {}) {
+    return await RNHce.getTapJournal(from, to, offset, limit);
+  },
+  clearTapJournal: function () {
+    RNHce.clearTapJournal();
+  },
+  importProfiles: async function (document) {
+    const json = typeof document === "string" ? document : JSON.stringify(document);
+    return await RNHce.importProfiles(json);
+  },
+  setFiles: async function (files) {
+    const json = typeof files === "string" ? files : JSON.stringify(files);
+    return await RNHce.setFiles(json);
+  },
+  importProfilesFromFile: async function (path) {
+    return await RNHce.importProfilesFromFile(path);
+  },
+  activateProfile: async function (id) {
+    return await RNHce.activateProfile(id);
+  },
+  enableReaderMode: async function (options = {}, onTag) {
+    if (onTag) {
+      removeReaderTagListener();
+      readerTagListener = DeviceEventEmitter.addListener("readerTagDiscovered", onTag);
+    }
+    return await RNHce.enableReaderMode(options);
+  },
+  disableReaderMode: function () {
+    removeReaderTagListener();
+    RNHce.disableReaderMode();
+  },
+  runApduScript: async function (commands, options) {
+    return await RNHce.runApduScript(commands, options || null);
+  },
   setSuccessToast: function (content) {
     RNHce.setSuccessToast(content);
   },